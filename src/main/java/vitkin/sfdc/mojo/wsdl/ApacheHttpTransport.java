@@ -0,0 +1,260 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.params.CookiePolicy;
+import org.apache.http.client.params.HttpClientParams;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.cookie.BasicClientCookie;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
+/**
+ * HTTP transport based on Apache HttpClient.<br/>
+ * That's the default transport.
+ *
+ * @author Victor Itkin
+ */
+public class ApacheHttpTransport implements HttpTransport
+{
+  /**
+   * Max number of concurrent connections to the same server.
+   */
+  private static final int MAX_CONNECTIONS_PER_ROUTE = 10;
+
+  /**
+   * Connections are pooled so that requests can run concurrently.
+   */
+  private final PoolingClientConnectionManager connectionManager =
+    new PoolingClientConnectionManager();
+
+  private final DefaultHttpClient client =
+    new DefaultHttpClient(connectionManager);
+
+  /**
+   * Default constructor.
+   */
+  public ApacheHttpTransport()
+  {
+    connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+    connectionManager.setMaxTotal(MAX_CONNECTIONS_PER_ROUTE * 2);
+
+    final HttpParams params = client.getParams();
+
+    HttpClientParams.setCookiePolicy(params, CookiePolicy.NETSCAPE);
+    params.setParameter(HttpConnectionParams.CONNECTION_TIMEOUT,
+      LatencyHistory.DEFAULT_CONNECTION_TIMEOUT);
+  }
+
+  @Override
+  public void setCookieJar(final CookieJar cookieJar)
+  {
+    client.setCookieStore(new JarCookieStore(cookieJar));
+  }
+
+  @Override
+  public Request get(final String url)
+  {
+    return new InnerRequest(new HttpGet(url));
+  }
+
+  @Override
+  public Request post(final String url, final Map<String, String> form)
+  {
+    final HttpPost request = new HttpPost(url);
+
+    final List<BasicNameValuePair> parametersBody =
+      new ArrayList<BasicNameValuePair>();
+
+    for (Map.Entry<String, String> parameter : form.entrySet())
+    {
+      parametersBody.add(
+        new BasicNameValuePair(parameter.getKey(), parameter.getValue()));
+    }
+
+    request.setEntity(new UrlEncodedFormEntity(parametersBody, Consts.UTF_8));
+
+    return new InnerRequest(request);
+  }
+
+  @Override
+  public void shutdown()
+  {
+    client.getConnectionManager().shutdown();
+  }
+
+  /**
+   * Convert a cookie of the jar to an HttpClient cookie.
+   *
+   * @param cookie The cookie of the jar.
+   *
+   * @return The HttpClient cookie.
+   */
+  static BasicClientCookie toCookie(final SessionCookie cookie)
+  {
+    final BasicClientCookie converted =
+      new BasicClientCookie(cookie.getName(), cookie.getValue());
+
+    converted.setDomain(cookie.getDomain());
+    converted.setPath(cookie.getPath());
+    converted.setExpiryDate(cookie.getExpiryDate());
+    converted.setSecure(cookie.isSecure());
+
+    return converted;
+  }
+
+  /**
+   * Convert an HttpClient cookie to a cookie of the jar.
+   *
+   * @param cookie The HttpClient cookie.
+   *
+   * @return The cookie of the jar.
+   */
+  static SessionCookie toSessionCookie(final Cookie cookie)
+  {
+    return new SessionCookie(cookie.getName(), cookie.getValue(),
+      cookie.getDomain(), cookie.getPath(), cookie.getExpiryDate(),
+      cookie.isSecure());
+  }
+
+  /**
+   * HttpClient view of a cookie jar.
+   */
+  private static class JarCookieStore implements CookieStore
+  {
+    private final CookieJar cookieJar;
+
+    private JarCookieStore(final CookieJar cookieJar)
+    {
+      this.cookieJar = cookieJar;
+    }
+
+    @Override
+    public void addCookie(final Cookie cookie)
+    {
+      cookieJar.add(toSessionCookie(cookie));
+    }
+
+    @Override
+    public List<Cookie> getCookies()
+    {
+      final List<Cookie> cookies = new ArrayList<Cookie>();
+
+      for (SessionCookie cookie : cookieJar.getCookies())
+      {
+        cookies.add(toCookie(cookie));
+      }
+
+      return cookies;
+    }
+
+    @Override
+    public boolean clearExpired(final Date date)
+    {
+      return cookieJar.clearExpired(date);
+    }
+
+    @Override
+    public void clear()
+    {
+      cookieJar.clear();
+    }
+  }
+
+  /**
+   * Request wrapping an HttpClient request.
+   */
+  private class InnerRequest implements Request
+  {
+    private final HttpRequestBase request;
+
+    private InnerRequest(final HttpRequestBase request)
+    {
+      this.request = request;
+    }
+
+    @Override
+    public void setTimeouts(final int connectionTimeout, final int soTimeout)
+    {
+      final HttpParams params = request.getParams();
+
+      HttpConnectionParams.setConnectionTimeout(params, connectionTimeout);
+      HttpConnectionParams.setSoTimeout(params, soTimeout);
+    }
+
+    @Override
+    public Response execute() throws IOException
+    {
+      final HttpResponse response = client.execute(request);
+
+      return new Response()
+      {
+        @Override
+        public int getStatusCode()
+        {
+          return response.getStatusLine().getStatusCode();
+        }
+
+        @Override
+        public String getFirstHeader(final String name)
+        {
+          final Header header = response.getFirstHeader(name);
+
+          return header == null ? null : header.getValue();
+        }
+
+        @Override
+        public InputStream getContent() throws IOException
+        {
+          final HttpEntity entity = response.getEntity();
+
+          return entity == null ?
+            new ByteArrayInputStream(new byte[0]) : entity.getContent();
+        }
+      };
+    }
+
+    @Override
+    public void abort()
+    {
+      request.abort();
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Cookies of a session shared by an {@link HttpTransport} and the downloader
+ * saving them.<br/>
+ * Thread safe. Cookies are matched with requests the Netscape way, so that
+ * whatever the transport the same session is reused.
+ *
+ * @author Victor Itkin
+ */
+public final class CookieJar
+{
+  private final List<SessionCookie> cookies = new ArrayList<SessionCookie>();
+
+  /**
+   * Add a cookie, replacing the one with the same name, domain and path if
+   * any. An expired cookie only removes the one it replaces.
+   *
+   * @param cookie The cookie.
+   */
+  public synchronized void add(final SessionCookie cookie)
+  {
+    for (Iterator<SessionCookie> it = cookies.iterator(); it.hasNext();)
+    {
+      if (it.next().isReplacedBy(cookie))
+      {
+        it.remove();
+      }
+    }
+
+    if (!cookie.isExpired(new Date()))
+    {
+      cookies.add(cookie);
+    }
+  }
+
+  /**
+   * @return A snapshot of all the cookies, expired ones included.
+   */
+  public synchronized List<SessionCookie> getCookies()
+  {
+    return new ArrayList<SessionCookie>(cookies);
+  }
+
+  /**
+   * Get the cookies to send with a request.
+   *
+   * @param uri Absolute URI of the request.
+   *
+   * @return The cookies that are not expired and which domain, path and
+   *         security match the URI.
+   */
+  public synchronized List<SessionCookie> getCookies(final URI uri)
+  {
+    final Date now = new Date();
+    final String host = uri.getHost();
+    final String path = uri.getPath() == null || uri.getPath().isEmpty() ?
+      "/" : uri.getPath();
+    final boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+    final List<SessionCookie> matches = new ArrayList<SessionCookie>();
+
+    for (SessionCookie cookie : cookies)
+    {
+      if (!cookie.isExpired(now) && (secure || !cookie.isSecure()) &&
+        domainMatches(cookie.getDomain(), host) &&
+        pathMatches(cookie.getPath(), path))
+      {
+        matches.add(cookie);
+      }
+    }
+
+    return matches;
+  }
+
+  /**
+   * Remove the expired cookies.
+   *
+   * @param date The current date.
+   *
+   * @return True if any cookie was removed.
+   */
+  public synchronized boolean clearExpired(final Date date)
+  {
+    boolean removed = false;
+
+    for (Iterator<SessionCookie> it = cookies.iterator(); it.hasNext();)
+    {
+      if (it.next().isExpired(date))
+      {
+        it.remove();
+        removed = true;
+      }
+    }
+
+    return removed;
+  }
+
+  /**
+   * Remove all the cookies.
+   */
+  public synchronized void clear()
+  {
+    cookies.clear();
+  }
+
+  /**
+   * Tell if a host is in the domain of a cookie, i.e. it's the domain itself
+   * or one of its sub-domains.
+   *
+   * @param domain Domain of the cookie (e.g. '.salesforce.com').
+   * @param host   Host of the request.
+   *
+   * @return True if the host is in the domain.
+   */
+  static boolean domainMatches(final String domain, final String host)
+  {
+    if (domain == null || host == null)
+    {
+      return false;
+    }
+
+    final String bare = (domain.startsWith(".") ? domain.substring(1) :
+      domain).toLowerCase(Locale.ROOT);
+    final String lowerHost = host.toLowerCase(Locale.ROOT);
+
+    return lowerHost.equals(bare) || lowerHost.endsWith('.' + bare);
+  }
+
+  /**
+   * Tell if the path of a request is under the path of a cookie.
+   *
+   * @param cookiePath Path of the cookie or null for '/'.
+   * @param path       Path of the request.
+   *
+   * @return True if the path is the cookie path or below it.
+   */
+  static boolean pathMatches(final String cookiePath, final String path)
+  {
+    String top = cookiePath == null || cookiePath.isEmpty() ? "/" :
+      cookiePath;
+
+    if (top.length() > 1 && top.endsWith("/"))
+    {
+      top = top.substring(0, top.length() - 1);
+    }
+
+    return path.startsWith(top) && (top.equals("/") ||
+      path.length() == top.length() || path.charAt(top.length()) == '/');
+  }
+}
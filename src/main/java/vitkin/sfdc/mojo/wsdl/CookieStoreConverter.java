@@ -0,0 +1,119 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import com.thoughtworks.xstream.mapper.Mapper;
+
+import org.apache.http.client.CookieStore;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.cookie.BasicClientCookie;
+
+/**
+ * XStream converter of cookie stores.<br/>
+ * The cookies are written and read one by one through the store instead of
+ * reflecting on its sorted set, which recent JDKs don't allow. Files written
+ * by the reflection based converters are still read.
+ *
+ * @author Victor Itkin
+ */
+final class CookieStoreConverter implements Converter
+{
+  private final Mapper mapper;
+
+  /**
+   * Initialize the instance.
+   *
+   * @param mapper Mapper of the XStream instance.
+   */
+  CookieStoreConverter(final Mapper mapper)
+  {
+    this.mapper = mapper;
+  }
+
+  @Override
+  @SuppressWarnings("rawtypes") // Raw in the XStream API.
+  public boolean canConvert(final Class type)
+  {
+    return type == BasicCookieStore.class;
+  }
+
+  @Override
+  public void marshal(final Object source,
+                      final HierarchicalStreamWriter writer,
+                      final MarshallingContext context)
+  {
+    writer.startNode("cookies");
+
+    // A copy of the cookies taken under the lock of the store.
+    for (Cookie cookie : ((CookieStore) source).getCookies())
+    {
+      writer.startNode("cookie");
+
+      if (cookie.getClass() != BasicClientCookie.class)
+      {
+        writer.addAttribute("class", mapper.serializedClass(cookie.getClass()));
+      }
+
+      context.convertAnother(cookie);
+
+      writer.endNode();
+    }
+
+    writer.endNode();
+  }
+
+  @Override
+  public Object unmarshal(final HierarchicalStreamReader reader,
+                          final UnmarshallingContext context)
+  {
+    final BasicCookieStore store = new BasicCookieStore();
+
+    while (reader.hasMoreChildren())
+    {
+      reader.moveDown();
+
+      while (reader.hasMoreChildren())
+      {
+        reader.moveDown();
+
+        // The comparator is the one of the new store.
+        if ("cookie".equals(reader.getNodeName()))
+        {
+          final String type = reader.getAttribute("class");
+
+          store.addCookie((Cookie) context.convertAnother(store,
+            type == null ? BasicClientCookie.class : mapper.realClass(type)));
+        }
+
+        reader.moveUp();
+      }
+
+      reader.moveUp();
+    }
+
+    return store;
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Input stream copying to an output stream whatever is read from it.
+ *
+ * @author Victor Itkin
+ */
+final class CopyingInputStream extends FilterInputStream
+{
+  private final OutputStream out;
+
+  /**
+   * Initialize the instance.
+   *
+   * @param in  The stream to read from.
+   * @param out The stream to copy to. Not closed by this stream.
+   */
+  CopyingInputStream(final InputStream in, final OutputStream out)
+  {
+    super(in);
+
+    this.out = out;
+  }
+
+  @Override
+  public int read() throws IOException
+  {
+    final int b = super.read();
+
+    if (b != -1)
+    {
+      out.write(b);
+    }
+
+    return b;
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len) throws
+    IOException
+  {
+    final int n = super.read(b, off, len);
+
+    if (n > 0)
+    {
+      out.write(b, off, n);
+    }
+
+    return n;
+  }
+
+  @Override
+  public long skip(final long n) throws IOException
+  {
+    // Skipped bytes must be copied too.
+    final byte[] buffer = new byte[(int) Math.min(n, 1024)];
+
+    final int count = read(buffer, 0, buffer.length);
+
+    return count < 0 ? 0 : count;
+  }
+
+  @Override
+  public boolean markSupported()
+  {
+    return false;
+  }
+
+  @Override
+  public void mark(final int readlimit)
+  {
+  }
+
+  @Override
+  public void reset() throws IOException
+  {
+    throw new IOException("Mark not supported!");
+  }
+}
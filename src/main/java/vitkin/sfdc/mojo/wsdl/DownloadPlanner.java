@@ -0,0 +1,524 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
+import org.apache.maven.project.MavenProject;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+
+/**
+ * Planner of the WSDL downloads of all the 'download' executions of a
+ * reactor.<br/>
+ * The parameters of the executions are resolved like Maven does: from the
+ * configuration of the execution merged with the one of the plugin, then from
+ * the property of the parameter and then from its default value. Their
+ * expressions are evaluated for each project. An expression that cannot be
+ * evaluated fails the planning rather than being taken literally, so that
+ * the downloads never go where the executions wouldn't.
+ *
+ * @author Victor Itkin
+ */
+final class DownloadPlanner
+{
+  /**
+   * Goal of the executions to plan.
+   */
+  private static final String DOWNLOAD_GOAL = "download";
+
+  /**
+   * Expression in a parameter value.
+   */
+  private static final Pattern EXPRESSION = Pattern.compile("\\$\\{([^}]*)\\}");
+
+  private final Log logger;
+
+  private final String pluginGroupId;
+
+  private final String pluginArtifactId;
+
+  private final Date buildStartTime;
+
+  private final File executionRootDirectory;
+
+  private final String localRepository;
+
+  /**
+   * Initialize the instance.
+   *
+   * @param logger                 Logger.
+   * @param pluginGroupId          Group ID of the plugin.
+   * @param pluginArtifactId       Artifact ID of the plugin.
+   * @param buildStartTime         Start time of the build.
+   * @param executionRootDirectory Directory from where the build was started.
+   *                               May be null.
+   * @param localRepository        Path of the local repository. May be null.
+   */
+  DownloadPlanner(final Log logger, final String pluginGroupId,
+                  final String pluginArtifactId, final Date buildStartTime,
+                  final File executionRootDirectory,
+                  final String localRepository)
+  {
+    this.logger = logger;
+    this.pluginGroupId = pluginGroupId;
+    this.pluginArtifactId = pluginArtifactId;
+    this.buildStartTime = buildStartTime;
+    this.executionRootDirectory = executionRootDirectory;
+    this.localRepository = localRepository;
+  }
+
+  /**
+   * Collect the downloads of all the 'download' executions of projects.
+   *
+   * @param projects Projects of the reactor.
+   *
+   * @return Downloads by WSDL key by organization, in reactor order.
+   *
+   * @throws MojoExecutionException If a parameter cannot be evaluated or a
+   *                                WSDL URI is invalid.
+   */
+  Map<String, Map<String, List<Download>>> plan(
+    final List<MavenProject> projects) throws MojoExecutionException
+  {
+    final Map<String, Map<String, List<Download>>> plan =
+      new LinkedHashMap<String, Map<String, List<Download>>>();
+
+    int count = 0;
+
+    for (MavenProject project : projects)
+    {
+      final List<?> buildPlugins = project.getBuildPlugins();
+
+      if (buildPlugins == null)
+      {
+        continue;
+      }
+
+      for (Object buildPlugin : buildPlugins)
+      {
+        final Plugin plugin = (Plugin) buildPlugin;
+
+        if (!pluginGroupId.equals(plugin.getGroupId()) ||
+          !pluginArtifactId.equals(plugin.getArtifactId()))
+        {
+          continue;
+        }
+
+        for (Object pluginExecution : plugin.getExecutions())
+        {
+          final PluginExecution execution = (PluginExecution) pluginExecution;
+
+          if (!execution.getGoals().contains(DOWNLOAD_GOAL))
+          {
+            continue;
+          }
+
+          final Xpp3Dom configuration = merge(
+            (Xpp3Dom) execution.getConfiguration(),
+            (Xpp3Dom) plugin.getConfiguration());
+
+          final Download download = new Download(this, project, configuration);
+
+          if (download.username == null || download.password == null)
+          {
+            logger.warn("No username or password for execution '" +
+              execution.getId() + "' of " + project.getId() + ". Skipping...");
+
+            continue;
+          }
+
+          final String orgId =
+            WsdlDownloader.getOrgId(download.env, download.username);
+          final String key =
+            SharedDownloads.getKey(buildStartTime, orgId, download.wsdlUri);
+
+          Map<String, List<Download>> orgDownloads = plan.get(orgId);
+
+          if (orgDownloads == null)
+          {
+            orgDownloads = new LinkedHashMap<String, List<Download>>();
+            plan.put(orgId, orgDownloads);
+          }
+
+          List<Download> downloads = orgDownloads.get(key);
+
+          if (downloads == null)
+          {
+            downloads = new ArrayList<Download>();
+            orgDownloads.put(key, downloads);
+          }
+
+          downloads.add(download);
+          count++;
+        }
+      }
+    }
+
+    if (!plan.isEmpty())
+    {
+      int wsdlCount = 0;
+
+      for (Map<String, List<Download>> orgDownloads : plan.values())
+      {
+        wsdlCount += orgDownloads.size();
+      }
+
+      logger.info("Downloading " + wsdlCount + " WSDL(s) from " + plan.size() +
+        " organization(s) for " + count + " execution(s)...");
+    }
+
+    return plan;
+  }
+
+  /**
+   * Evaluate the expressions of a parameter value.<br/>
+   * Supported expressions are '${session.executionRootDirectory}',
+   * '${basedir}', '${project.basedir}', '${project.build.directory}',
+   * '${project.groupId}', '${project.artifactId}', '${project.version}',
+   * '${settings.localRepository}', '${env.NAME}' and the system and project
+   * properties, system ones first. Values of properties are evaluated too.
+   *
+   * @param project Project of the execution.
+   * @param name    Name of the parameter.
+   * @param value   The value. May be null.
+   *
+   * @return The evaluated value or null if the value is null.
+   *
+   * @throws MojoExecutionException If an expression cannot be evaluated.
+   */
+  String evaluate(final MavenProject project, final String name,
+                  final String value) throws MojoExecutionException
+  {
+    return evaluate(project, name, value, new HashSet<String>());
+  }
+
+  /**
+   * Evaluate the expressions of a parameter value.
+   *
+   * @param project     Project of the execution.
+   * @param name        Name of the parameter.
+   * @param value       The value. May be null.
+   * @param expressions Expressions being evaluated, to detect cycles.
+   *
+   * @return The evaluated value or null if the value is null.
+   *
+   * @throws MojoExecutionException If an expression cannot be evaluated.
+   */
+  private String evaluate(final MavenProject project, final String name,
+                          final String value, final Set<String> expressions)
+    throws
+    MojoExecutionException
+  {
+    if (value == null || !value.contains("${"))
+    {
+      return value;
+    }
+
+    final Matcher matcher = EXPRESSION.matcher(value);
+    final StringBuffer result = new StringBuffer();
+
+    while (matcher.find())
+    {
+      final String expression = matcher.group(1);
+
+      final String resolved =
+        expressions.add(expression) ? resolve(project, expression) : null;
+
+      if (resolved == null)
+      {
+        throw newUnresolvedException(project, name, "${" + expression + "}");
+      }
+
+      matcher.appendReplacement(result, Matcher.quoteReplacement(
+        evaluate(project, name, resolved, expressions)));
+
+      expressions.remove(expression);
+    }
+
+    matcher.appendTail(result);
+
+    // Only an expression without its closing brace may be left.
+    if (result.indexOf("${") != -1)
+    {
+      throw newUnresolvedException(project, name, value);
+    }
+
+    return result.toString();
+  }
+
+  /**
+   * Get the value of an expression.
+   *
+   * @param project    Project of the execution.
+   * @param expression The expression without its delimiters.
+   *
+   * @return The value or null if unknown.
+   */
+  private String resolve(final MavenProject project, final String expression)
+  {
+    if ("session.executionRootDirectory".equals(expression))
+    {
+      return executionRootDirectory == null ? null :
+        executionRootDirectory.getPath();
+    }
+
+    if ("basedir".equals(expression) || "project.basedir".equals(expression))
+    {
+      final File basedir = project.getBasedir();
+
+      return basedir == null ? null : basedir.getPath();
+    }
+
+    if ("project.build.directory".equals(expression))
+    {
+      return project.getBuild() == null ? null :
+        project.getBuild().getDirectory();
+    }
+
+    if ("project.groupId".equals(expression))
+    {
+      return project.getGroupId();
+    }
+
+    if ("project.artifactId".equals(expression))
+    {
+      return project.getArtifactId();
+    }
+
+    if ("project.version".equals(expression))
+    {
+      return project.getVersion();
+    }
+
+    if ("settings.localRepository".equals(expression))
+    {
+      return localRepository;
+    }
+
+    if (expression.startsWith("env."))
+    {
+      return System.getenv(expression.substring("env.".length()));
+    }
+
+    final String value = System.getProperty(expression);
+
+    return value == null ? project.getProperties().getProperty(expression) :
+      value;
+  }
+
+  /**
+   * Get the value of a parameter.
+   *
+   * @param project       Project of the execution.
+   * @param configuration Configuration of the execution. May be null.
+   * @param name          Name of the parameter.
+   * @param property      Property of the parameter.
+   * @param defaultValue  Default value. May be null.
+   *
+   * @return The evaluated value or null if not set or empty.
+   *
+   * @throws MojoExecutionException If the value cannot be evaluated.
+   */
+  private String getValue(final MavenProject project,
+                          final Xpp3Dom configuration, final String name,
+                          final String property, final String defaultValue)
+    throws
+    MojoExecutionException
+  {
+    final Xpp3Dom child =
+      configuration == null ? null : configuration.getChild(name);
+
+    String value = child == null ? null : child.getValue();
+
+    if (value == null)
+    {
+      value = System.getProperty(property);
+    }
+
+    if (value == null)
+    {
+      value = project.getProperties().getProperty(property);
+    }
+
+    if (value == null)
+    {
+      value = defaultValue;
+    }
+
+    value = evaluate(project, name, value);
+
+    // An empty value is not set, as for Maven.
+    return value == null || value.trim().isEmpty() ? null : value.trim();
+  }
+
+  /**
+   * Get the value of a file parameter.
+   *
+   * @param project       Project of the execution.
+   * @param configuration Configuration of the execution. May be null.
+   * @param name          Name of the parameter.
+   * @param property      Property of the parameter.
+   * @param defaultValue  Default value.
+   *
+   * @return The file, relative to the base directory of the project if not
+   *         absolute.
+   *
+   * @throws MojoExecutionException If the value cannot be evaluated.
+   */
+  private File getFile(final MavenProject project,
+                       final Xpp3Dom configuration, final String name,
+                       final String property, final String defaultValue)
+    throws
+    MojoExecutionException
+  {
+    final File file = new File(
+      getValue(project, configuration, name, property, defaultValue));
+
+    return file.isAbsolute() ? file : new File(project.getBasedir(),
+      file.getPath());
+  }
+
+  /**
+   * Merge the configuration of an execution with the one of its plugin.
+   *
+   * @param execution Configuration of the execution. May be null.
+   * @param plugin    Configuration of the plugin. May be null.
+   *
+   * @return The merged configuration. May be null.
+   */
+  private static Xpp3Dom merge(final Xpp3Dom execution, final Xpp3Dom plugin)
+  {
+    if (execution == null)
+    {
+      return plugin;
+    }
+
+    return Xpp3Dom.mergeXpp3Dom(new Xpp3Dom(execution), plugin);
+  }
+
+  private static MojoExecutionException newUnresolvedException(
+    final MavenProject project, final String name, final String value)
+  {
+    return new MojoExecutionException("Cannot evaluate '" + value +
+      "' of parameter '" + name + "' for " + project.getId() + "!");
+  }
+
+  /**
+   * Parameters of a 'download' execution.
+   */
+  static final class Download
+  {
+    final String env;
+
+    final String username;
+
+    final String password;
+
+    final File cookiesDirectory;
+
+    final URI wsdlUri;
+
+    final File outputDirectory;
+
+    final String filename;
+
+    final boolean generateIndex;
+
+    final boolean hedgeRequests;
+
+    final String transport;
+
+    /**
+     * Initialize the instance.
+     *
+     * @param planner       Planner evaluating the parameters.
+     * @param project       Project of the execution.
+     * @param configuration Configuration of the execution. May be null.
+     *
+     * @throws MojoExecutionException If a parameter cannot be evaluated or
+     *                                the WSDL URI is invalid.
+     */
+    private Download(final DownloadPlanner planner, final MavenProject project,
+                     final Xpp3Dom configuration)
+      throws
+      MojoExecutionException
+    {
+      env = Boolean.parseBoolean(planner.getValue(project, configuration,
+        "useSandbox", "sfdc.useSandbox", null)) ?
+        WsdlDownloader.SANDBOX_ENV : WsdlDownloader.DEV_PROD_ENV;
+
+      username = planner.getValue(project, configuration, "username",
+        "sfdc.username", null);
+
+      password = planner.getValue(project, configuration, "password",
+        "sfdc.password", null);
+
+      cookiesDirectory = planner.getFile(project, configuration,
+        "cookiesDirectory", "sfdc.cookiesDirectory",
+        WsdlDownloadlMojo.DEFAULT_COOKIES_DIRECTORY_VALUE);
+
+      final String uri = planner.getValue(project, configuration, "wsdlUri",
+        "sfdc.wsdl.uri", WsdlDownloadlMojo.DEFAULT_WSDL_URI_VALUE);
+
+      try
+      {
+        wsdlUri = new URI(uri);
+      }
+      catch (URISyntaxException ex)
+      {
+        throw new MojoExecutionException(
+          "Invalid WSDL URI '" + uri + "' for " + project.getId(), ex);
+      }
+
+      outputDirectory = planner.getFile(project, configuration,
+        "outputDirectory", "sfdc.wsdl.outputDirectory",
+        WsdlDownloadlMojo.DEFAULT_OUTPUT_DIRECTORY_VALUE);
+
+      filename = planner.getValue(project, configuration, "filename",
+        "sfdc.wsdl.filename", null);
+
+      generateIndex = Boolean.parseBoolean(planner.getValue(project,
+        configuration, "generateIndex", "sfdc.wsdl.index", null));
+
+      hedgeRequests = Boolean.parseBoolean(planner.getValue(project,
+        configuration, "hedgeRequests", "sfdc.hedgeRequests", "true"));
+
+      transport = planner.getValue(project, configuration, "transport",
+        "sfdc.transport", WsdlDownloadlMojo.DEFAULT_TRANSPORT);
+    }
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import java.io.File;
+
+/**
+ * WSDL downloaded once and shared by the executions asking for it.
+ *
+ * @author Victor Itkin
+ */
+final class DownloadedWsdl
+{
+  private final File file;
+
+  private final String defaultFilename;
+
+  /**
+   * Initialize the instance.
+   *
+   * @param file            The saved WSDL file.
+   * @param defaultFilename Name of the file provided by the resource server or
+   *                        null if none.
+   */
+  DownloadedWsdl(final File file, final String defaultFilename)
+  {
+    this.file = file;
+    this.defaultFilename = defaultFilename;
+  }
+
+  /**
+   * @return The saved WSDL file. Its name may be the one chosen by the
+   *         execution which downloaded it.
+   */
+  File getFile()
+  {
+    return file;
+  }
+
+  /**
+   * @return Name of the file provided by the resource server or null if none.
+   */
+  String getDefaultFilename()
+  {
+    return defaultFilename;
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * HTTP transport used to log in, follow the redirection to the resource server
+ * and get the WSDLs.<br/>
+ * Implementations must be thread safe and keep their cookies in the given
+ * {@link CookieJar} so that sessions can be saved and reused whatever the
+ * transport. They are selected with the 'transport' parameter either by name
+ * ('apache' or 'jdk') or by class name, in which case they need a public
+ * default constructor.
+ *
+ * @author Victor Itkin
+ */
+public interface HttpTransport
+{
+  /**
+   * Set the cookie jar used for all the requests.<br/>
+   * Called once before any request.
+   *
+   * @param cookieJar The cookie jar.
+   */
+  void setCookieJar(CookieJar cookieJar);
+
+  /**
+   * Create a GET request. Redirections are followed.
+   *
+   * @param url URL to get.
+   *
+   * @return The request.
+   */
+  Request get(String url);
+
+  /**
+   * Create a POST request of a URL encoded form. Redirections are not
+   * followed.
+   *
+   * @param url  URL to post to.
+   * @param form Form parameters.
+   *
+   * @return The request.
+   */
+  Request post(String url, Map<String, String> form);
+
+  /**
+   * Release all the resources (e.g. connections) held by the transport.
+   */
+  void shutdown();
+
+  /**
+   * HTTP request.
+   */
+  interface Request
+  {
+    /**
+     * Set the timeouts of the request.
+     *
+     * @param connectionTimeout Connection timeout in ms. 0 for none.
+     * @param soTimeout         Max time waiting for data in ms. 0 for none.
+     */
+    void setTimeouts(int connectionTimeout, int soTimeout);
+
+    /**
+     * Send the request and wait for the response headers.
+     *
+     * @return The response.
+     *
+     * @throws IOException
+     */
+    Response execute() throws IOException;
+
+    /**
+     * Abort the request from any thread, whether it has been sent or not.
+     * Its response if any is discarded.
+     */
+    void abort();
+  }
+
+  /**
+   * HTTP response.
+   */
+  interface Response
+  {
+    /**
+     * @return The status code.
+     */
+    int getStatusCode();
+
+    /**
+     * Get the value of the first header with the given name.
+     *
+     * @param name Case insensitive name of the header.
+     *
+     * @return The value or null if there is no such header.
+     */
+    String getFirstHeader(String name);
+
+    /**
+     * Get the content. To be read once and closed.
+     *
+     * @return The content. Empty if none.
+     *
+     * @throws IOException
+     */
+    InputStream getContent() throws IOException;
+  }
+}
@@ -0,0 +1,636 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpCookie;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * HTTP transport based on the JDK {@link HttpClient}.<br/>
+ * HTTP/2 is negotiated with the servers supporting it so that concurrent
+ * requests (e.g. hedged WSDL requests or the downloads of the 'download-all'
+ * goal) are multiplexed over a single connection per server. Otherwise HTTP/1.1
+ * is used.
+ * <p/>
+ * Cookies are parsed with {@link HttpCookie} and matched with the requests by
+ * the {@link CookieJar}, the Netscape way like the Apache HttpClient based
+ * transport, so that both can share the saved sessions.
+ * <p/>
+ * The client has no per request connection timeout, so the connection timeout
+ * of a request, plus its socket timeout if any, is applied as the max time
+ * waiting for the response headers. The socket timeout is then applied to
+ * each read of the content, the reading thread being interrupted if no data
+ * comes in time.
+ *
+ * @author Victor Itkin
+ */
+public class JdkHttpTransport implements HttpTransport
+{
+  /**
+   * Max number of redirections followed by a GET request.
+   */
+  private static final int MAX_REDIRECTS = 10;
+
+  private volatile CookieJar cookieJar = new CookieJar();
+
+  /**
+   * Executor of the client. Daemon threads so that a transport never shut
+   * down doesn't hold the build.
+   */
+  private final ExecutorService executor =
+    Executors.newCachedThreadPool(new DaemonThreadFactory("sfdc-wsdl-http"));
+
+  /**
+   * Timer of the content reads.
+   */
+  private final ScheduledExecutorService timer =
+    Executors.newSingleThreadScheduledExecutor(
+    new DaemonThreadFactory("sfdc-wsdl-http-timer"));
+
+  private final HttpClient client = HttpClient.newBuilder()
+    .version(HttpClient.Version.HTTP_2)
+    .followRedirects(HttpClient.Redirect.NEVER)
+    .connectTimeout(Duration.ofMillis(LatencyHistory.MAX_CONNECTION_TIMEOUT))
+    .executor(executor)
+    .build();
+
+  @Override
+  public void setCookieJar(final CookieJar cookieJar)
+  {
+    this.cookieJar = cookieJar;
+  }
+
+  @Override
+  public Request get(final String url)
+  {
+    return new InnerRequest(url, null);
+  }
+
+  @Override
+  public Request post(final String url, final Map<String, String> form)
+  {
+    final StringBuilder encoded = new StringBuilder();
+
+    for (Map.Entry<String, String> parameter : form.entrySet())
+    {
+      if (encoded.length() > 0)
+      {
+        encoded.append('&');
+      }
+
+      encoded.append(URLEncoder.encode(parameter.getKey(),
+        StandardCharsets.UTF_8)).append('=');
+
+      if (parameter.getValue() != null)
+      {
+        encoded.append(URLEncoder.encode(parameter.getValue(),
+          StandardCharsets.UTF_8));
+      }
+    }
+
+    return new InnerRequest(url,
+      encoded.toString().getBytes(StandardCharsets.US_ASCII));
+  }
+
+  @Override
+  public void shutdown()
+  {
+    // The client has no close method before Java 21. Stopping its executor
+    // fails whatever is still pending and lets its connections be collected.
+    executor.shutdownNow();
+    timer.shutdownNow();
+  }
+
+  /**
+   * Add the cookies matching a URI to a request.
+   *
+   * @param builder The request builder.
+   * @param uri     The URI of the request.
+   */
+  private void addCookies(final HttpRequest.Builder builder, final URI uri)
+  {
+    final StringBuilder header = new StringBuilder();
+
+    for (SessionCookie cookie : cookieJar.getCookies(uri))
+    {
+      if (header.length() > 0)
+      {
+        header.append("; ");
+      }
+
+      header.append(cookie.getName()).append('=').append(cookie.getValue());
+    }
+
+    if (header.length() > 0)
+    {
+      builder.header("Cookie", header.toString());
+    }
+  }
+
+  /**
+   * Store the cookies set by a response.<br/>
+   * Invalid cookies and cookies for another domain or path are ignored.
+   *
+   * @param response The response.
+   * @param uri      The URI of the request.
+   */
+  private void storeCookies(final HttpResponse<?> response, final URI uri)
+  {
+    final String host = uri.getHost();
+    final String requestPath = uri.getPath() == null ||
+      uri.getPath().isEmpty() ? "/" : uri.getPath();
+    final Date now = new Date();
+
+    for (String value : response.headers().allValues("Set-Cookie"))
+    {
+      final List<HttpCookie> cookies;
+
+      try
+      {
+        cookies = HttpCookie.parse(value);
+      }
+      catch (IllegalArgumentException ex)
+      {
+        continue;
+      }
+
+      for (HttpCookie cookie : cookies)
+      {
+        final String domain =
+          cookie.getDomain() == null ? host : cookie.getDomain();
+        final String path =
+          cookie.getPath() == null ? getDefaultPath(uri) : cookie.getPath();
+
+        if (!CookieJar.domainMatches(domain, host) ||
+          !CookieJar.pathMatches(path, requestPath))
+        {
+          continue;
+        }
+
+        final long maxAge = cookie.getMaxAge();
+
+        cookieJar.add(new SessionCookie(cookie.getName(), cookie.getValue(),
+          domain, path,
+          maxAge < 0 ? null : new Date(now.getTime() + maxAge * 1000),
+          cookie.getSecure()));
+      }
+    }
+  }
+
+  /**
+   * @return The default path of the cookies set by a response: the path of
+   *         the request up to its last '/'.
+   */
+  private static String getDefaultPath(final URI uri)
+  {
+    final String path = uri.getPath();
+    final int slash = path == null ? -1 : path.lastIndexOf('/');
+
+    return slash <= 0 ? "/" : path.substring(0, slash);
+  }
+
+  private static boolean isRedirect(final int code)
+  {
+    return code == 301 || code == 302 || code == 303 || code == 307 ||
+      code == 308;
+  }
+
+  /**
+   * Request sent asynchronously so that it can be aborted from any thread.
+   */
+  private class InnerRequest implements Request
+  {
+    private final String url;
+
+    private final byte[] body;
+
+    private int connectionTimeout = LatencyHistory.DEFAULT_CONNECTION_TIMEOUT;
+
+    private int soTimeout;
+
+    private volatile CompletableFuture<HttpResponse<InputStream>> pending;
+
+    private volatile InputStream content;
+
+    private volatile boolean aborted;
+
+    private InnerRequest(final String url, final byte[] body)
+    {
+      this.url = url;
+      this.body = body;
+    }
+
+    @Override
+    public void setTimeouts(final int connectionTimeout, final int soTimeout)
+    {
+      this.connectionTimeout = connectionTimeout;
+      this.soTimeout = soTimeout;
+    }
+
+    @Override
+    public Response execute() throws IOException
+    {
+      URI location = URI.create(url);
+
+      for (int redirects = 0;; redirects++)
+      {
+        final HttpRequest.Builder builder = HttpRequest.newBuilder(location);
+
+        if (connectionTimeout > 0 || soTimeout > 0)
+        {
+          builder.timeout(Duration.ofMillis(connectionTimeout + soTimeout));
+        }
+
+        addCookies(builder, location);
+
+        if (body != null)
+        {
+          builder.header("Content-Type",
+            "application/x-www-form-urlencoded; charset=UTF-8");
+          builder.POST(HttpRequest.BodyPublishers.ofByteArray(body));
+        }
+        else
+        {
+          builder.GET();
+        }
+
+        final HttpResponse<InputStream> response = send(builder.build());
+
+        storeCookies(response, location);
+
+        final String next =
+          response.headers().firstValue("Location").orElse(null);
+
+        if (body != null || !isRedirect(response.statusCode()) ||
+          next == null || redirects == MAX_REDIRECTS)
+        {
+          return new InnerResponse(response, soTimeout > 0 ?
+            new DeadlineInputStream(response.body(), soTimeout) :
+            response.body());
+        }
+
+        response.body().close();
+
+        location = location.resolve(next);
+      }
+    }
+
+    /**
+     * Send a request and wait for its response headers.
+     *
+     * @param request The request.
+     *
+     * @return The response.
+     *
+     * @throws IOException If the request failed or was aborted.
+     */
+    private HttpResponse<InputStream> send(final HttpRequest request) throws
+      IOException
+    {
+      final CompletableFuture<HttpResponse<InputStream>> future =
+        client.sendAsync(request, new HttpResponse.BodyHandler<InputStream>()
+        {
+          @Override
+          public HttpResponse.BodySubscriber<InputStream> apply(
+            final HttpResponse.ResponseInfo info)
+          {
+            final HttpResponse.BodySubscriber<InputStream> subscriber =
+              HttpResponse.BodyHandlers.ofInputStream().apply(info);
+
+            // The content is known as soon as the headers come, even when
+            // the future was cancelled meanwhile: before Java 16 cancelling
+            // it doesn't stop the exchange.
+            subscriber.getBody().thenAccept(new Consumer<InputStream>()
+            {
+              @Override
+              public void accept(final InputStream stream)
+              {
+                content = stream;
+
+                if (aborted)
+                {
+                  closeQuietly(stream);
+                }
+              }
+            });
+
+            return subscriber;
+          }
+        });
+
+      pending = future;
+
+      if (aborted)
+      {
+        abort(future);
+      }
+
+      try
+      {
+        final HttpResponse<InputStream> response = future.get();
+
+        if (aborted)
+        {
+          closeQuietly(response.body());
+
+          throw new IOException("Request aborted!");
+        }
+
+        return response;
+      }
+      catch (CancellationException ex)
+      {
+        throw new IOException("Request aborted!", ex);
+      }
+      catch (InterruptedException ex)
+      {
+        abort(future);
+
+        Thread.currentThread().interrupt();
+
+        throw new InterruptedIOException("Request interrupted!");
+      }
+      catch (ExecutionException ex)
+      {
+        final Throwable cause = ex.getCause();
+
+        throw cause instanceof IOException ? (IOException) cause :
+          new IOException(cause);
+      }
+    }
+
+    @Override
+    public void abort()
+    {
+      aborted = true;
+
+      final CompletableFuture<HttpResponse<InputStream>> future = pending;
+
+      if (future != null)
+      {
+        abort(future);
+      }
+
+      final InputStream current = content;
+
+      if (current != null)
+      {
+        closeQuietly(current);
+      }
+    }
+
+    /**
+     * Cancel a pending exchange and close its content if its response still
+     * comes.
+     *
+     * @param future The pending response.
+     */
+    private void abort(final CompletableFuture<HttpResponse<InputStream>> future)
+    {
+      future.cancel(true);
+      future.thenAccept(new Consumer<HttpResponse<InputStream>>()
+      {
+        @Override
+        public void accept(final HttpResponse<InputStream> response)
+        {
+          closeQuietly(response.body());
+        }
+      });
+    }
+  }
+
+  private static void closeQuietly(final InputStream stream)
+  {
+    try
+    {
+      stream.close();
+    }
+    catch (IOException ex)
+    {
+    }
+  }
+
+  /**
+   * Content which reads fail with a {@link SocketTimeoutException} when no
+   * data comes within the socket timeout.<br/>
+   * The reading thread is interrupted, which wakes it up whatever the read
+   * the client is blocked in, and the content is closed.
+   */
+  private class DeadlineInputStream extends FilterInputStream
+  {
+    private final int soTimeout;
+
+    /**
+     * Thread in a read or null if none.
+     */
+    private Thread reader;
+
+    private boolean timedOut;
+
+    private DeadlineInputStream(final InputStream in, final int soTimeout)
+    {
+      super(in);
+
+      this.soTimeout = soTimeout;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+      final ScheduledFuture<?> deadline = begin();
+
+      try
+      {
+        return super.read();
+      }
+      catch (IOException ex)
+      {
+        throw timedOut(ex);
+      }
+      finally
+      {
+        end(deadline);
+      }
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int offset, final int length)
+      throws IOException
+    {
+      final ScheduledFuture<?> deadline = begin();
+
+      try
+      {
+        return super.read(bytes, offset, length);
+      }
+      catch (IOException ex)
+      {
+        throw timedOut(ex);
+      }
+      finally
+      {
+        end(deadline);
+      }
+    }
+
+    private ScheduledFuture<?> begin()
+    {
+      synchronized (this)
+      {
+        reader = Thread.currentThread();
+      }
+
+      return timer.schedule(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          synchronized (DeadlineInputStream.this)
+          {
+            if (reader == null)
+            {
+              return;
+            }
+
+            timedOut = true;
+            reader.interrupt();
+          }
+
+          closeQuietly(in);
+        }
+      }, soTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    private void end(final ScheduledFuture<?> deadline)
+    {
+      deadline.cancel(false);
+
+      synchronized (this)
+      {
+        reader = null;
+
+        // Only clear the interruption caused by the timeout.
+        if (timedOut)
+        {
+          Thread.interrupted();
+        }
+      }
+    }
+
+    private synchronized IOException timedOut(final IOException ex)
+    {
+      if (!timedOut)
+      {
+        return ex;
+      }
+
+      final SocketTimeoutException timeout = new SocketTimeoutException(
+        "No data received for " + soTimeout + " ms!");
+
+      timeout.initCause(ex);
+
+      return timeout;
+    }
+  }
+
+  /**
+   * Thread factory of daemon threads so that a transport never shut down
+   * doesn't hold the build.
+   */
+  private static class DaemonThreadFactory implements ThreadFactory
+  {
+    private final String name;
+
+    private DaemonThreadFactory(final String name)
+    {
+      this.name = name;
+    }
+
+    @Override
+    public Thread newThread(final Runnable runnable)
+    {
+      final Thread thread = new Thread(runnable, name);
+
+      thread.setDaemon(true);
+
+      return thread;
+    }
+  }
+
+  /**
+   * Response which content is streamed.
+   */
+  private static class InnerResponse implements Response
+  {
+    private final HttpResponse<InputStream> response;
+
+    private final InputStream content;
+
+    private InnerResponse(final HttpResponse<InputStream> response,
+                          final InputStream content)
+    {
+      this.response = response;
+      this.content = content;
+    }
+
+    @Override
+    public int getStatusCode()
+    {
+      return response.statusCode();
+    }
+
+    @Override
+    public String getFirstHeader(final String name)
+    {
+      return response.headers().firstValue(name).orElse(null);
+    }
+
+    @Override
+    public InputStream getContent() throws IOException
+    {
+      return content == null ? new ByteArrayInputStream(new byte[0]) : content;
+    }
+  }
+}
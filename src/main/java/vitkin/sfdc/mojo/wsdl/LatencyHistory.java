@@ -0,0 +1,220 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Latencies (time to first byte) of the last requests made to each endpoint of
+ * an organization.<br/>
+ * Saved as XML next to the cookies so that timeouts can be deduced from
+ * previous runs.
+ *
+ * @author Victor Itkin
+ */
+final class LatencyHistory
+{
+  /**
+   * Log in request to the authorization server.
+   */
+  static final String LOGIN = "login";
+
+  /**
+   * Redirection to the resource server.
+   */
+  static final String REDIRECT = "redirect";
+
+  /**
+   * WSDL requests to the resource server. Prefix of the endpoint of each WSDL
+   * URI (see {@link #getWsdlEndpoint(URI)}).
+   */
+  static final String WSDL = "wsdl";
+
+  /**
+   * Number of latencies kept per endpoint.
+   */
+  private static final int MAX_SAMPLES = 50;
+
+  /**
+   * Number of latencies needed before computing percentiles.
+   */
+  private static final int MIN_SAMPLES = 5;
+
+  /**
+   * Timeouts are that many times the 99th percentile.
+   */
+  private static final int TIMEOUT_FACTOR = 4;
+
+  /**
+   * Connection timeout when there is no history (ms).
+   */
+  static final int DEFAULT_CONNECTION_TIMEOUT = 30000;
+
+  private static final int MIN_CONNECTION_TIMEOUT = 5000;
+
+  /**
+   * Longest connection timeout deduced from the history (ms). Slow sandboxes
+   * can need more than the default one.
+   */
+  static final int MAX_CONNECTION_TIMEOUT = 120000;
+
+  private static final int MIN_SO_TIMEOUT = 10000;
+
+  private static final int MAX_SO_TIMEOUT = 600000;
+
+  /**
+   * Latencies in ms by endpoint. Oldest first.
+   */
+  private final Map<String, LinkedList<Long>> latencies =
+    new HashMap<String, LinkedList<Long>>();
+
+  /**
+   * Get the endpoint of the requests for a WSDL.<br/>
+   * Each WSDL URI has its own latencies since small and big WSDLs (e.g. a
+   * custom web service and the metadata WSDL) take very different times.
+   *
+   * @param wsdlUri Relative URI of the WSDL.
+   *
+   * @return The endpoint.
+   */
+  static String getWsdlEndpoint(final URI wsdlUri)
+  {
+    return WSDL + ':' + wsdlUri;
+  }
+
+  /**
+   * Add the latency of a request.
+   *
+   * @param endpoint The requested endpoint.
+   * @param latency  Time to first byte in ms.
+   */
+  synchronized void add(final String endpoint, final long latency)
+  {
+    LinkedList<Long> samples = latencies.get(endpoint);
+
+    if (samples == null)
+    {
+      samples = new LinkedList<Long>();
+      latencies.put(endpoint, samples);
+    }
+
+    samples.addLast(latency);
+
+    if (samples.size() > MAX_SAMPLES)
+    {
+      samples.removeFirst();
+    }
+  }
+
+  /**
+   * Copy the history, for example to save it while requests keep adding to
+   * it.
+   *
+   * @return The copy.
+   */
+  synchronized LatencyHistory copy()
+  {
+    final LatencyHistory copy = new LatencyHistory();
+
+    for (Map.Entry<String, LinkedList<Long>> samples : latencies.entrySet())
+    {
+      copy.latencies.put(samples.getKey(),
+        new LinkedList<Long>(samples.getValue()));
+    }
+
+    return copy;
+  }
+
+  /**
+   * Get a percentile of the latencies of an endpoint.
+   *
+   * @param endpoint   The endpoint.
+   * @param percentile The percentile (e.g. 95).
+   *
+   * @return The percentile in ms or -1 if there is not enough history.
+   */
+  synchronized long getPercentile(final String endpoint, final int percentile)
+  {
+    final LinkedList<Long> samples = latencies.get(endpoint);
+
+    if (samples == null || samples.size() < MIN_SAMPLES)
+    {
+      return -1;
+    }
+
+    final List<Long> sorted = new ArrayList<Long>(samples);
+
+    Collections.sort(sorted);
+
+    final int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+
+    return sorted.get(Math.max(rank, 1) - 1);
+  }
+
+  /**
+   * Get the connection timeout for an endpoint.<br/>
+   * Only the time to first byte is recorded, which also includes the TLS
+   * handshake and the server processing time. It is used as an upper bound of
+   * the time to connect, so the deduced timeout is rather generous.
+   *
+   * @param endpoint The endpoint.
+   *
+   * @return The timeout in ms.
+   */
+  int getConnectionTimeout(final String endpoint)
+  {
+    final long p99 = getPercentile(endpoint, 99);
+
+    if (p99 < 0)
+    {
+      return DEFAULT_CONNECTION_TIMEOUT;
+    }
+
+    return (int) Math.min(MAX_CONNECTION_TIMEOUT,
+      Math.max(MIN_CONNECTION_TIMEOUT, p99 * TIMEOUT_FACTOR));
+  }
+
+  /**
+   * Get the socket timeout (max time waiting for data) for an endpoint.
+   *
+   * @param endpoint The endpoint.
+   *
+   * @return The timeout in ms or 0 (no timeout) if there is not enough
+   *         history.
+   */
+  int getSoTimeout(final String endpoint)
+  {
+    final long p99 = getPercentile(endpoint, 99);
+
+    if (p99 < 0)
+    {
+      return 0;
+    }
+
+    return (int) Math.min(MAX_SO_TIMEOUT,
+      Math.max(MIN_SO_TIMEOUT, p99 * TIMEOUT_FACTOR));
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Downloads running in the background until a later phase of the build of
+ * their project waits for them.
+ *
+ * @author Victor Itkin
+ */
+final class PendingDownloads
+{
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  /**
+   * Executor of the downloads.<br/>
+   * Threads are daemons so that a build failing before waiting for the
+   * downloads isn't held by them.
+   */
+  private static final ExecutorService EXECUTOR =
+    Executors.newCachedThreadPool(new ThreadFactory()
+    {
+      @Override
+      public Thread newThread(final Runnable runnable)
+      {
+        final Thread thread = new Thread(runnable,
+          "sfdc-wsdl-download-" + THREAD_COUNT.incrementAndGet());
+
+        thread.setDaemon(true);
+
+        return thread;
+      }
+    });
+
+  /**
+   * Pending downloads by project base directory.
+   */
+  private static final Map<File, List<Future<File>>> PENDING =
+    new HashMap<File, List<Future<File>>>();
+
+  private PendingDownloads()
+  {
+  }
+
+  /**
+   * Start a download in the background.
+   *
+   * @param basedir  Base directory of the project.
+   * @param download The download returning the WSDL file.
+   */
+  static void submit(final File basedir, final Callable<File> download)
+  {
+    final Future<File> future = EXECUTOR.submit(download);
+
+    synchronized (PENDING)
+    {
+      List<Future<File>> futures = PENDING.get(basedir);
+
+      if (futures == null)
+      {
+        futures = new ArrayList<Future<File>>();
+        PENDING.put(basedir, futures);
+      }
+
+      futures.add(future);
+    }
+  }
+
+  /**
+   * Remove the pending downloads of a project.
+   *
+   * @param basedir Base directory of the project.
+   *
+   * @return The downloads in submission order. Empty if none.
+   */
+  static List<Future<File>> remove(final File basedir)
+  {
+    synchronized (PENDING)
+    {
+      final List<Future<File>> futures = PENDING.remove(basedir);
+
+      return futures == null ? new ArrayList<Future<File>>() : futures;
+    }
+  }
+
+  /**
+   * Cancel and remove the pending downloads of all the projects, e.g. those
+   * of a previous build that never waited for them.
+   */
+  static void cancelAll()
+  {
+    final List<Future<File>> cancelled = new ArrayList<Future<File>>();
+
+    synchronized (PENDING)
+    {
+      for (List<Future<File>> futures : PENDING.values())
+      {
+        cancelled.addAll(futures);
+      }
+
+      PENDING.clear();
+    }
+
+    for (Future<File> future : cancelled)
+    {
+      future.cancel(true);
+    }
+  }
+
+  /**
+   * Wait for the pending downloads of a project and remove them.<br/>
+   * All of them are waited for. Only the first failure, in submission order,
+   * is thrown and the other ones are logged.
+   *
+   * @param basedir Base directory of the project.
+   * @param logger  Logger.
+   *
+   * @throws MojoExecutionException If a download failed.
+   */
+  static void await(final File basedir, final Log logger) throws
+    MojoExecutionException
+  {
+    final List<Future<File>> downloads = remove(basedir);
+
+    if (downloads.isEmpty())
+    {
+      logger.info("No WSDL download to wait for.");
+
+      return;
+    }
+
+    logger.info("Waiting for " + downloads.size() + " WSDL download(s)...");
+
+    MojoExecutionException failure = null;
+
+    for (Future<File> download : downloads)
+    {
+      try
+      {
+        logger.info("Downloaded WSDL '" + download.get() + "'.");
+      }
+      catch (ExecutionException ex)
+      {
+        final Throwable cause = ex.getCause();
+
+        if (failure == null)
+        {
+          failure = cause instanceof MojoExecutionException ?
+            (MojoExecutionException) cause :
+            new MojoExecutionException("Failed downloading the WSDL!", cause);
+        }
+        else
+        {
+          logger.error(cause.getMessage(), cause);
+        }
+      }
+      catch (InterruptedException ex)
+      {
+        Thread.currentThread().interrupt();
+
+        throw new MojoExecutionException(
+          "Interrupted while waiting for the WSDL downloads!", ex);
+      }
+    }
+
+    if (failure != null)
+    {
+      throw failure;
+    }
+  }
+}
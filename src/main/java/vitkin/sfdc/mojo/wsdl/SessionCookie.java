@@ -0,0 +1,152 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import java.util.Date;
+
+/**
+ * Cookie of a session kept in a {@link CookieJar}.<br/>
+ * Immutable. Cookies are identified by their name, domain and path.
+ *
+ * @author Victor Itkin
+ */
+public final class SessionCookie
+{
+  private final String name;
+
+  private final String value;
+
+  private final String domain;
+
+  private final String path;
+
+  private final Date expiryDate;
+
+  private final boolean secure;
+
+  /**
+   * Initialize the instance.
+   *
+   * @param name       Name of the cookie.
+   * @param value      Value of the cookie.
+   * @param domain     Domain of the cookie (e.g. '.salesforce.com').
+   * @param path       Path of the cookie or null for '/'.
+   * @param expiryDate Expiry date of the cookie or null if it only lasts for
+   *                   the session.
+   * @param secure     True if the cookie is only sent over HTTPS.
+   */
+  public SessionCookie(final String name, final String value,
+                       final String domain, final String path,
+                       final Date expiryDate, final boolean secure)
+  {
+    this.name = name;
+    this.value = value;
+    this.domain = domain;
+    this.path = path;
+    this.expiryDate = expiryDate == null ? null :
+      new Date(expiryDate.getTime());
+    this.secure = secure;
+  }
+
+  /**
+   * @return Name of the cookie.
+   */
+  public String getName()
+  {
+    return name;
+  }
+
+  /**
+   * @return Value of the cookie.
+   */
+  public String getValue()
+  {
+    return value;
+  }
+
+  /**
+   * @return Domain of the cookie.
+   */
+  public String getDomain()
+  {
+    return domain;
+  }
+
+  /**
+   * @return Path of the cookie or null for '/'.
+   */
+  public String getPath()
+  {
+    return path;
+  }
+
+  /**
+   * @return Expiry date of the cookie or null if it only lasts for the
+   *         session.
+   */
+  public Date getExpiryDate()
+  {
+    return expiryDate == null ? null : new Date(expiryDate.getTime());
+  }
+
+  /**
+   * @return True if the cookie is only sent over HTTPS.
+   */
+  public boolean isSecure()
+  {
+    return secure;
+  }
+
+  /**
+   * Tell if the cookie is expired.
+   *
+   * @param date The current date.
+   *
+   * @return True if the cookie has an expiry date before the given one.
+   */
+  public boolean isExpired(final Date date)
+  {
+    return expiryDate != null && !expiryDate.after(date);
+  }
+
+  /**
+   * Tell if another cookie has the same name, domain and path and so replaces
+   * this one.
+   *
+   * @param other The other cookie.
+   *
+   * @return True if the other cookie replaces this one.
+   */
+  boolean isReplacedBy(final SessionCookie other)
+  {
+    return name.equals(other.name) &&
+      (domain == null ? other.domain == null :
+      domain.equalsIgnoreCase(other.domain)) &&
+      (path == null ? "/" : path).equals(
+      other.path == null ? "/" : other.path);
+  }
+
+  @Override
+  public String toString()
+  {
+    return name + '=' + value + "; domain=" + domain + "; path=" +
+      (path == null ? "/" : path);
+  }
+}
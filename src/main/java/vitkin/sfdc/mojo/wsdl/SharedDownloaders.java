@@ -0,0 +1,161 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * WSDL downloaders shared by the executions of a build downloading from the
+ * same organization at the same time.<br/>
+ * A single downloader per organization logs in once and is the only one to
+ * save the cookies and latencies of the organization, whether its downloads
+ * run in the background or not. It is shut down once its last user releases
+ * it.
+ *
+ * @author Victor Itkin
+ */
+final class SharedDownloaders
+{
+  /**
+   * Downloaders in use by key.
+   */
+  private static final Map<String, SharedDownloader> DOWNLOADERS =
+    new HashMap<String, SharedDownloader>();
+
+  private SharedDownloaders()
+  {
+  }
+
+  /**
+   * Get the key of a downloader.
+   *
+   * @param cookiesDirectory Directory where the session is saved.
+   * @param orgId            Identifier of the organization (environment and
+   *                         username).
+   * @param transport        Name of the HTTP transport.
+   *
+   * @return The key.
+   */
+  static String getKey(final File cookiesDirectory, final String orgId,
+                       final String transport)
+  {
+    return cookiesDirectory.getAbsoluteFile().toPath().normalize() + "/" +
+      orgId + " (" + transport + ")";
+  }
+
+  /**
+   * Get the downloader of an organization, creating it if not in use.<br/>
+   * Each call is to be followed by a call to {@link #release(String)} once
+   * the downloads are over.
+   *
+   * @param key              Key of the downloader.
+   * @param logger           Logger.
+   * @param env              Salesforce environment. Either 'sandbox' or
+   *                         'dev-prod'.
+   * @param username         Email address based username.
+   * @param password         Password (without the security token).
+   * @param cookiesDirectory Directory where the session is saved.
+   * @param transport        Name of the HTTP transport.
+   *
+   * @return The downloader.
+   *
+   * @throws MojoExecutionException If the HTTP transport cannot be created.
+   */
+  static WsdlDownloader acquire(final String key, final Log logger,
+                                final String env, final String username,
+                                final String password,
+                                final File cookiesDirectory,
+                                final String transport) throws
+    MojoExecutionException
+  {
+    synchronized (DOWNLOADERS)
+    {
+      SharedDownloader shared = DOWNLOADERS.get(key);
+
+      if (shared == null)
+      {
+        shared = new SharedDownloader(new WsdlDownloader(logger, env,
+          username, password, cookiesDirectory,
+          WsdlDownloader.createTransport(transport)));
+
+        DOWNLOADERS.put(key, shared);
+      }
+
+      shared.users++;
+
+      return shared.downloader;
+    }
+  }
+
+  /**
+   * Release a downloader, shutting it down if it was its last user.
+   *
+   * @param key Key of the downloader.
+   */
+  static void release(final String key)
+  {
+    final SharedDownloader shared;
+
+    synchronized (DOWNLOADERS)
+    {
+      shared = DOWNLOADERS.get(key);
+
+      if (shared == null || --shared.users > 0)
+      {
+        return;
+      }
+
+      DOWNLOADERS.remove(key);
+    }
+
+    shared.downloader.shutdown();
+  }
+
+  /**
+   * @return True if a downloader is in use for the key.
+   */
+  static boolean isInUse(final String key)
+  {
+    synchronized (DOWNLOADERS)
+    {
+      return DOWNLOADERS.containsKey(key);
+    }
+  }
+
+  /**
+   * Downloader and its number of users.
+   */
+  private static final class SharedDownloader
+  {
+    private final WsdlDownloader downloader;
+
+    private int users;
+
+    private SharedDownloader(final WsdlDownloader downloader)
+    {
+      this.downloader = downloader;
+    }
+  }
+}
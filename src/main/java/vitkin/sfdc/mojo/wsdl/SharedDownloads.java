@@ -0,0 +1,251 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * WSDL downloads shared by all the executions of a build.<br/>
+ * The first request for a WSDL runs the download and the other ones, either
+ * concurrent or later, wait for it and get the same downloaded file.<br/>
+ * Only the entries of the current build are kept: those of the previous
+ * builds run by the same JVM (e.g. a build daemon) are evicted when the next
+ * one starts.
+ *
+ * @author Victor Itkin
+ */
+final class SharedDownloads
+{
+  /**
+   * Downloads by build, organization and WSDL URI.
+   */
+  private static final ConcurrentMap<String, FutureTask<DownloadedWsdl>>
+    DOWNLOADS = new ConcurrentHashMap<String, FutureTask<DownloadedWsdl>>();
+
+  /**
+   * Targets (WSDL key, location, file name and index) already saved.
+   */
+  private static final Set<String> DONE =
+    Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  /**
+   * Directory of the downloaded files under the build directory.
+   */
+  private static final String CACHE_DIRECTORY = "sfdc-wsdl";
+
+  /**
+   * Identifier of the current build. Guarded by the class.
+   */
+  private static String currentBuild;
+
+  private SharedDownloads()
+  {
+  }
+
+  /**
+   * Get the key of a WSDL.
+   *
+   * @param buildStartTime Start time of the build.
+   * @param orgId          Identifier of the organization.
+   * @param wsdlUri        Relative URI of the WSDL.
+   *
+   * @return The key.
+   */
+  static String getKey(final Date buildStartTime, final String orgId,
+                       final URI wsdlUri)
+  {
+    return getBuildId(buildStartTime) + '/' + orgId + '/' + wsdlUri;
+  }
+
+  /**
+   * Make a build the current one, evicting the entries of the previous build
+   * and cancelling its downloads still pending in the background.
+   *
+   * @param buildStartTime Start time of the build.
+   */
+  static void startBuild(final Date buildStartTime)
+  {
+    final String buildId = getBuildId(buildStartTime);
+
+    // The eviction holds the lock so that no execution of the new build
+    // registers a download before it is done.
+    synchronized (SharedDownloads.class)
+    {
+      if (buildId.equals(currentBuild))
+      {
+        return;
+      }
+
+      currentBuild = buildId;
+
+      final String prefix = buildId + '/';
+
+      for (Iterator<String> it = DOWNLOADS.keySet().iterator(); it.hasNext();)
+      {
+        if (!it.next().startsWith(prefix))
+        {
+          it.remove();
+        }
+      }
+
+      for (Iterator<String> it = DONE.iterator(); it.hasNext();)
+      {
+        if (!it.next().startsWith(prefix))
+        {
+          it.remove();
+        }
+      }
+
+      PendingDownloads.cancelAll();
+    }
+  }
+
+  /**
+   * Get the directory where a WSDL is downloaded before being copied to the
+   * executions asking for it.<br/>
+   * It's private to the plugin so that no other goal reads a file being
+   * written. The same directory is used by the next builds.
+   *
+   * @param buildDirectory Build directory of the project (e.g. 'target').
+   * @param key            Key of the WSDL.
+   *
+   * @return The directory.
+   */
+  static File getCacheDirectory(final File buildDirectory, final String key)
+  {
+    // The build is left out of the key.
+    final String wsdlId = key.substring(key.indexOf('/') + 1);
+
+    return new File(new File(buildDirectory, CACHE_DIRECTORY),
+      String.format("%08x", wsdlId.hashCode()));
+  }
+
+  private static String getBuildId(final Date buildStartTime)
+  {
+    return buildStartTime == null ? "" :
+      String.valueOf(buildStartTime.getTime());
+  }
+
+  /**
+   * Record that a WSDL has been saved for an execution.
+   *
+   * @param key             Key of the WSDL.
+   * @param outputDirectory Location of the file.
+   * @param filename        Name of the file or null for the default one.
+   * @param generateIndex   True if the WSDL index was written too.
+   */
+  static void setDone(final String key, final File outputDirectory,
+                      final String filename, final boolean generateIndex)
+  {
+    DONE.add(getTarget(key, outputDirectory, filename, generateIndex));
+  }
+
+  /**
+   * Tell if a WSDL has already been saved as an execution asks for.
+   *
+   * @param key             Key of the WSDL.
+   * @param outputDirectory Location of the file.
+   * @param filename        Name of the file or null for the default one.
+   * @param generateIndex   True if the WSDL index is needed too.
+   *
+   * @return True if there is nothing left to do for the execution.
+   */
+  static boolean isDone(final String key, final File outputDirectory,
+                        final String filename, final boolean generateIndex)
+  {
+    return DONE.contains(getTarget(key, outputDirectory, filename, true)) ||
+      (!generateIndex &&
+      DONE.contains(getTarget(key, outputDirectory, filename, false)));
+  }
+
+  private static String getTarget(final String key, final File outputDirectory,
+                                  final String filename,
+                                  final boolean generateIndex)
+  {
+    return key + " -> " +
+      outputDirectory.toPath().toAbsolutePath().normalize() + '/' +
+      (filename == null ? "" : filename) + (generateIndex ? " (indexed)" : "");
+  }
+
+  /**
+   * Get a WSDL, downloading it if it's the first request for it.<br/>
+   * A failed download is forgotten so that a later request tries again.
+   *
+   * @param key      Key of the WSDL (build, organization and WSDL URI).
+   * @param download The download returning the WSDL.
+   *
+   * @return The downloaded WSDL.
+   *
+   * @throws MojoExecutionException If the download failed.
+   */
+  static DownloadedWsdl get(final String key,
+                            final Callable<DownloadedWsdl> download)
+    throws
+    MojoExecutionException
+  {
+    final FutureTask<DownloadedWsdl> task =
+      new FutureTask<DownloadedWsdl>(download);
+
+    FutureTask<DownloadedWsdl> shared = DOWNLOADS.putIfAbsent(key, task);
+
+    if (shared == null)
+    {
+      shared = task;
+      shared.run();
+    }
+
+    try
+    {
+      return shared.get();
+    }
+    catch (ExecutionException ex)
+    {
+      DOWNLOADS.remove(key, shared);
+
+      final Throwable cause = ex.getCause();
+
+      if (cause instanceof MojoExecutionException)
+      {
+        throw (MojoExecutionException) cause;
+      }
+
+      throw new MojoExecutionException("Failed downloading the WSDL!", cause);
+    }
+    catch (InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+
+      throw new MojoExecutionException(
+        "Interrupted while waiting for the WSDL download!", ex);
+    }
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import java.io.File;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Goal which waits for the WSDLs downloaded in the background by the
+ * 'download' goal with 'async' set to true.<br/>
+ * That goals by default binds to the 'generate-sources' lifecycle phase.
+ *
+ * @author Victor Itkin
+ */
+@Mojo(name = "await",
+      defaultPhase = LifecyclePhase.GENERATE_SOURCES)
+public class WsdlAwaitMojo extends AbstractMojo
+{
+  /**
+   * Base directory of the project.
+   */
+  @Parameter(defaultValue = "${basedir}",
+             readonly = true)
+  private File basedir;
+
+  /**
+   * Execute the 'await' goal.
+   *
+   * @throws MojoExecutionException If a download failed.
+   */
+  @Override
+  public void execute() throws MojoExecutionException
+  {
+    PendingDownloads.await(basedir, getLog());
+  }
+}
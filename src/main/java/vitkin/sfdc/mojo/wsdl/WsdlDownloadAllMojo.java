@@ -0,0 +1,282 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.project.MavenProject;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import vitkin.sfdc.mojo.wsdl.DownloadPlanner.Download;
+
+/**
+ * Goal which downloads at once the WSDLs of all the 'download' executions of
+ * the reactor.<br/>
+ * That goals by default binds to the 'initialize' lifecycle phase and only
+ * runs at the top of the reactor. Downloads are grouped by organization so
+ * that each one logs in once, and each WSDL is downloaded once and copied to
+ * all the executions asking for it. The 'download' executions then find
+ * their WSDL already saved for the build and are skipped.
+ *
+ * @author Victor Itkin
+ */
+@Mojo(name = "download-all",
+      defaultPhase = LifecyclePhase.INITIALIZE,
+      aggregator = true,
+      requiresOnline = true)
+public class WsdlDownloadAllMojo extends AbstractMojo
+{
+  /**
+   * Max number of WSDLs downloaded at the same time.<br/>
+   * Default to 4.
+   */
+  @Parameter(property = "sfdc.threads",
+             defaultValue = "4")
+  private int threads;
+
+  /**
+   * Projects of the reactor.
+   */
+  @Parameter(defaultValue = "${reactorProjects}",
+             readonly = true)
+  private List<MavenProject> reactorProjects;
+
+  /**
+   * Group ID of the plugin.
+   */
+  @Parameter(defaultValue = "${plugin.groupId}",
+             readonly = true)
+  private String pluginGroupId;
+
+  /**
+   * Artifact ID of the plugin.
+   */
+  @Parameter(defaultValue = "${plugin.artifactId}",
+             readonly = true)
+  private String pluginArtifactId;
+
+  /**
+   * Start time of the build.
+   */
+  @Parameter(defaultValue = "${session.startTime}",
+             readonly = true)
+  private Date buildStartTime;
+
+  /**
+   * Directory from where the build was started.
+   */
+  @Parameter(defaultValue = "${session.executionRootDirectory}",
+             readonly = true)
+  private File executionRootDirectory;
+
+  /**
+   * Build directory of the project, where the downloaded WSDLs are cached
+   * before being copied to their output directory.
+   */
+  @Parameter(defaultValue = "${project.build.directory}",
+             readonly = true)
+  private File buildDirectory;
+
+  /**
+   * Path of the local repository.
+   */
+  @Parameter(defaultValue = "${settings.localRepository}",
+             readonly = true)
+  private String localRepository;
+
+  /**
+   * Base directory of the project.
+   */
+  @Parameter(defaultValue = "${basedir}",
+             readonly = true)
+  private File basedir;
+
+  /**
+   * Execute the 'download-all' goal.
+   *
+   * @throws MojoExecutionException If a download failed.
+   */
+  @Override
+  public void execute() throws MojoExecutionException
+  {
+    final Log logger = getLog();
+
+    if (executionRootDirectory != null &&
+      !executionRootDirectory.getAbsoluteFile().equals(
+      basedir.getAbsoluteFile()))
+    {
+      logger.info("Not at the top of the reactor. Skipping...");
+
+      return;
+    }
+
+    final Map<String, Map<String, List<Download>>> plan =
+      new DownloadPlanner(logger, pluginGroupId, pluginArtifactId,
+      buildStartTime, executionRootDirectory, localRepository)
+      .plan(reactorProjects);
+
+    if (plan.isEmpty())
+    {
+      logger.info("No WSDL to download in the reactor.");
+
+      return;
+    }
+
+    final ExecutorService executor =
+      Executors.newFixedThreadPool(Math.max(threads, 1));
+    final List<Future<File>> futures = new ArrayList<Future<File>>();
+    final List<String> downloaders = new ArrayList<String>();
+
+    try
+    {
+      for (Map<String, List<Download>> orgDownloads : plan.values())
+      {
+        // The first download of an organization sets its session up.
+        final Download first = orgDownloads.values().iterator().next().get(0);
+
+        final String downloaderKey = SharedDownloaders.getKey(
+          first.cookiesDirectory, WsdlDownloader.getOrgId(first.env,
+          first.username), first.transport);
+        final WsdlDownloader downloader = SharedDownloaders.acquire(
+          downloaderKey, logger, first.env, first.username, first.password,
+          first.cookiesDirectory, first.transport);
+
+        downloaders.add(downloaderKey);
+
+        for (Map.Entry<String, List<Download>> entry : orgDownloads.entrySet())
+        {
+          futures.add(executor.submit(
+            newDownload(downloader, entry.getKey(), entry.getValue())));
+        }
+      }
+
+      MojoExecutionException failure = null;
+
+      for (Future<File> future : futures)
+      {
+        try
+        {
+          future.get();
+        }
+        catch (ExecutionException ex)
+        {
+          final Throwable cause = ex.getCause();
+
+          if (failure == null)
+          {
+            failure = cause instanceof MojoExecutionException ?
+              (MojoExecutionException) cause :
+              new MojoExecutionException("Failed downloading the WSDL!", cause);
+          }
+          else
+          {
+            logger.error(cause.getMessage(), cause);
+          }
+        }
+        catch (InterruptedException ex)
+        {
+          Thread.currentThread().interrupt();
+
+          throw new MojoExecutionException(
+            "Interrupted while waiting for the WSDL downloads!", ex);
+        }
+      }
+
+      if (failure != null)
+      {
+        throw failure;
+      }
+    }
+    finally
+    {
+      executor.shutdownNow();
+
+      for (String downloaderKey : downloaders)
+      {
+        SharedDownloaders.release(downloaderKey);
+      }
+    }
+  }
+
+  /**
+   * Create the task downloading a WSDL once and copying it to all the
+   * executions asking for it.
+   *
+   * @param downloader WSDL downloader of the organization.
+   * @param key        Key of the WSDL for the build.
+   * @param downloads  Downloads of the WSDL.
+   *
+   * @return The task.
+   */
+  private Callable<File> newDownload(final WsdlDownloader downloader,
+                                     final String key,
+                                     final List<Download> downloads)
+  {
+    return new Callable<File>()
+    {
+      @Override
+      public File call() throws MojoExecutionException
+      {
+        final Download first = downloads.get(0);
+
+        final DownloadedWsdl wsdl =
+          SharedDownloads.get(key, new Callable<DownloadedWsdl>()
+          {
+            @Override
+            public DownloadedWsdl call() throws MojoExecutionException
+            {
+              return downloader.download(first.wsdlUri,
+                SharedDownloads.getCacheDirectory(buildDirectory, key),
+                first.hedgeRequests);
+            }
+          });
+
+        for (Download download : downloads)
+        {
+          downloader.copy(wsdl, download.outputDirectory, download.filename,
+            download.generateIndex);
+
+          SharedDownloads.setDone(key, download.outputDirectory,
+            download.filename, download.generateIndex);
+        }
+
+        return wsdl.getFile();
+      }
+    };
+  }
+}
@@ -0,0 +1,1311 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URI;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.XStreamException;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpStatus;
+import org.apache.http.NameValuePair;
+import org.apache.http.ParseException;
+import org.apache.http.client.CookieStore;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.cookie.BasicClientCookie;
+import org.apache.http.impl.cookie.BasicClientCookie2;
+import org.apache.http.message.BasicHeaderValueParser;
+
+import vitkin.sfdc.mojo.wsdl.HttpTransport.Request;
+import vitkin.sfdc.mojo.wsdl.HttpTransport.Response;
+
+/**
+ * Downloader of WSDLs from a salesforce.com organization.<br/>
+ * An instance keeps the session of a username in an environment and can be
+ * used by several threads. Logging in is only done when the saved session has
+ * expired.
+ *
+ * @author Victor Itkin
+ */
+final class WsdlDownloader
+{
+  /**
+   * Suffix for cookie store files.
+   */
+  private static final String COOKIES_SUFFIX = "-cookies.xml";
+
+  /**
+   * Name of a downloaded WSDL in its cache directory.
+   */
+  private static final String CACHED_FILENAME = "download.wsdl";
+
+  /**
+   * Suffix for latency history files.
+   */
+  private static final String LATENCIES_SUFFIX = "-latencies.xml";
+
+  /**
+   * Locks of the saved files by absolute path.
+   */
+  private static final ConcurrentMap<File, Object> FILE_LOCKS =
+    new ConcurrentHashMap<File, Object>();
+
+  /**
+   * Development/Production Authorization server URL.
+   */
+  private static final String DEV_PROD_AUTHORIZATION_SERVER =
+    "https://login.salesforce.com";
+
+  /**
+   * Sandbox Authorization server URL.
+   */
+  private static final String SANDBOX_AUTHORIZATION_SERVER =
+    "https://test.salesforce.com";
+
+  /**
+   * Sandbox environment.
+   */
+  static final String SANDBOX_ENV = "sanbox";
+
+  /**
+   * Development/Production environment.
+   */
+  static final String DEV_PROD_ENV = "dev-prod";
+
+  private final Log logger;
+
+  /**
+   * Salesforce environment. Either 'sandbox' or 'dev-prod'.
+   */
+  private final String env;
+
+  private final String username;
+
+  private final String password;
+
+  private final File cookiesDirectory;
+
+  /**
+   * Used for saving/loading cookie stores as XML.
+   */
+  private final XStream xstream = new XStream();
+
+  /**
+   * HTTP transport of the requests.
+   */
+  private final HttpTransport transport;
+
+  /**
+   * Cookies of the session.
+   */
+  private final CookieJar cookieJar = new CookieJar();
+
+  /**
+   * Latencies of the requests made to the organization.
+   */
+  private final LatencyHistory latencies;
+
+  /**
+   * Initialize the instance.<br/>
+   * Previously saved cookies are loaded to reuse the session.
+   *
+   * @param logger           Logger.
+   * @param env              Salesforce environment. Either 'sandbox' or
+   *                         'dev-prod'.
+   * @param username         Email address based username.
+   * @param password         Password (without the security token).
+   * @param cookiesDirectory Path to the directory where the cookies are
+   *                         stored.
+   * @param transport        HTTP transport of the requests.
+   */
+  WsdlDownloader(final Log logger, final String env, final String username,
+                 final String password, final File cookiesDirectory,
+                 final HttpTransport transport)
+  {
+    this.logger = logger;
+    this.env = env;
+    this.username = username;
+    this.password = password;
+    this.cookiesDirectory = cookiesDirectory;
+
+    xstream.alias("store", BasicCookieStore.class);
+    xstream.alias("cookie", BasicClientCookie.class);
+    xstream.alias("latencies", LatencyHistory.class);
+    xstream.registerConverter(new CookieStoreConverter(xstream.getMapper()));
+
+    // Only load the types saved by the instance.
+    xstream.allowTypes(new Class<?>[]
+    {
+      BasicCookieStore.class, BasicClientCookie.class,
+      BasicClientCookie2.class, LatencyHistory.class
+    });
+
+    final CookieStore loadedCookies = loadCookies(env);
+    final LatencyHistory loadedLatencies = loadLatencyHistory(env);
+
+    if (loadedCookies != null)
+    {
+      for (Cookie cookie : loadedCookies.getCookies())
+      {
+        cookieJar.add(ApacheHttpTransport.toSessionCookie(cookie));
+      }
+    }
+
+    latencies =
+      loadedLatencies == null ? new LatencyHistory() : loadedLatencies;
+
+    this.transport = transport;
+
+    transport.setCookieJar(cookieJar);
+  }
+
+  /**
+   * Create an HTTP transport.
+   *
+   * @param name Either 'apache', 'jdk' or the class name of an
+   *             {@link HttpTransport} implementation.
+   *
+   * @return The new transport.
+   *
+   * @throws MojoExecutionException If the transport cannot be created.
+   */
+  static HttpTransport createTransport(final String name) throws
+    MojoExecutionException
+  {
+    if ("apache".equals(name))
+    {
+      return new ApacheHttpTransport();
+    }
+
+    if ("jdk".equals(name))
+    {
+      return new JdkHttpTransport();
+    }
+
+    try
+    {
+      return (HttpTransport) Class.forName(name).getDeclaredConstructor()
+        .newInstance();
+    }
+    catch (ClassNotFoundException ex)
+    {
+      throw new MojoExecutionException("Unknown HTTP transport " + name, ex);
+    }
+    catch (InstantiationException ex)
+    {
+      throw new MojoExecutionException(
+        "Cannot create HTTP transport " + name, ex);
+    }
+    catch (IllegalAccessException ex)
+    {
+      throw new MojoExecutionException(
+        "Cannot create HTTP transport " + name, ex);
+    }
+    catch (NoSuchMethodException ex)
+    {
+      throw new MojoExecutionException(
+        "No default constructor for HTTP transport " + name, ex);
+    }
+    catch (InvocationTargetException ex)
+    {
+      throw new MojoExecutionException(
+        "Cannot create HTTP transport " + name, ex.getCause());
+    }
+    catch (ClassCastException ex)
+    {
+      throw new MojoExecutionException(
+        "Not an HTTP transport " + name, ex);
+    }
+  }
+
+  /**
+   * Download a WSDL, logging in first if needed.<br/>
+   * It is saved as is to a directory private to the plugin and then copied
+   * where the executions ask for it (see
+   * {@link #copy(DownloadedWsdl, File, String, boolean)}).
+   *
+   * @param wsdlUri        Relative URI of the WSDL.
+   * @param cacheDirectory Directory where to save the WSDL.
+   * @param hedgeRequests  True to allow hedged WSDL requests.
+   *
+   * @return The downloaded WSDL.
+   *
+   * @throws MojoExecutionException
+   */
+  DownloadedWsdl download(final URI wsdlUri, final File cacheDirectory,
+                          final boolean hedgeRequests)
+    throws
+    MojoExecutionException
+  {
+    try
+    {
+      return downloadWsdl(connect(), wsdlUri, cacheDirectory, hedgeRequests);
+    }
+    finally
+    {
+      saveSession();
+    }
+  }
+
+  /**
+   * Copy a downloaded WSDL where an execution asks for it.
+   *
+   * @param wsdl            The downloaded WSDL.
+   * @param outputDirectory Location of the file.
+   * @param filename        Name of the file or null for the one provided by
+   *                        the resource server.
+   * @param generateIndex   True to also write the WSDL index.
+   *
+   * @return The WSDL file.
+   *
+   * @throws MojoExecutionException
+   */
+  File copy(final DownloadedWsdl wsdl, final File outputDirectory,
+            final String filename, final boolean generateIndex)
+    throws
+    MojoExecutionException
+  {
+    final File source = wsdl.getFile();
+
+    if (filename == null && wsdl.getDefaultFilename() == null)
+    {
+      throw new MojoExecutionException("Couldn't get filename from server!");
+    }
+
+    final File wsdlFile = new File(outputDirectory,
+      filename == null ? wsdl.getDefaultFilename() : filename);
+
+    if (wsdlFile.getAbsoluteFile().equals(source.getAbsoluteFile()))
+    {
+      if (generateIndex && !WsdlIndex.getIndexFile(wsdlFile).exists())
+      {
+        indexWsdl(wsdlFile);
+      }
+
+      return wsdlFile;
+    }
+
+    if (!outputDirectory.exists())
+    {
+      outputDirectory.mkdirs();
+    }
+
+    logger.info("Copying WSDL from '" + source + "' to '" + wsdlFile + "'...");
+
+    InputStream is = null;
+
+    try
+    {
+      is = new FileInputStream(source);
+
+      if (generateIndex)
+      {
+        saveIndexedWsdl(is, wsdlFile);
+      }
+      else
+      {
+        final OutputStream os = new FileOutputStream(wsdlFile);
+
+        try
+        {
+          final byte[] buffer = new byte[8192];
+
+          for (int n = is.read(buffer); n != -1; n = is.read(buffer))
+          {
+            os.write(buffer, 0, n);
+          }
+        }
+        finally
+        {
+          os.close();
+        }
+      }
+    }
+    catch (IOException ex)
+    {
+      throw new MojoExecutionException("Failed copying the WSDL!", ex);
+    }
+    finally
+    {
+      if (is != null)
+      {
+        try
+        {
+          is.close();
+        }
+        catch (IOException ex)
+        {
+          logger.warn(ex.getMessage(), ex);
+        }
+      }
+    }
+
+    return wsdlFile;
+  }
+
+  /**
+   * Release the resources of the HTTP transport.<br/>
+   * The instance must not be used afterward.
+   */
+  void shutdown()
+  {
+    transport.shutdown();
+  }
+
+  /**
+   * Get the identifier of the organization the instance connects to.
+   *
+   * @return Environment and username (e.g. 'dev-prod/user.name@domain.tld').
+   */
+  String getOrgId()
+  {
+    return getOrgId(env, username);
+  }
+
+  /**
+   * Get the identifier of an organization.
+   *
+   * @param env      Salesforce environment. Either 'sandbox' or 'dev-prod'.
+   * @param username Email address based username.
+   *
+   * @return Environment and username (e.g. 'dev-prod/user.name@domain.tld').
+   */
+  static String getOrgId(final String env, final String username)
+  {
+    return env + '/' + username;
+  }
+
+  /**
+   * Get the resource server of the current session or log in if the session
+   * has expired.
+   *
+   * @return URL of the resource server.
+   *
+   * @throws MojoExecutionException
+   */
+  private synchronized String connect() throws MojoExecutionException
+  {
+    String resourceServer = getResourceServer();
+
+    if (resourceServer == null)
+    {
+      final String redirectUrl = logIn();
+      resourceServer = redirect(redirectUrl);
+    }
+
+    return resourceServer;
+  }
+
+  /**
+   * Save the cookies and the latencies of the session.<br/>
+   * Other downloads may go on with the session so copies taken under the lock
+   * of each object are saved.
+   */
+  private synchronized void saveSession()
+  {
+    // Saved in the format of the HttpClient cookie store of the previous
+    // versions.
+    final BasicCookieStore cookies = new BasicCookieStore();
+
+    for (SessionCookie cookie : cookieJar.getCookies())
+    {
+      cookies.addCookie(ApacheHttpTransport.toCookie(cookie));
+    }
+
+    saveCookies(env, cookies);
+    save(env, LATENCIES_SUFFIX, "latencies", latencies.copy());
+  }
+
+  /**
+   * Download the WSDL.
+   *
+   * @param resourceServer URL of the resource server from where to download.
+   * @param wsdlUri        Relative URI of the WSDL.
+   * @param cacheDirectory Directory where to save the WSDL.
+   * @param hedgeRequests  True to allow hedged WSDL requests.
+   *
+   * @return The downloaded WSDL.
+   *
+   * @throws MojoExecutionException
+   */
+  private DownloadedWsdl downloadWsdl(final String resourceServer,
+                                      final URI wsdlUri,
+                                      final File cacheDirectory,
+                                      final boolean hedgeRequests)
+    throws
+    MojoExecutionException
+  {
+    final String baseUrl = resourceServer + '/' + wsdlUri;
+
+    logger.info("Getting WSDL from " + baseUrl);
+
+    try
+    {
+      final Response response = getWsdl(baseUrl,
+        LatencyHistory.getWsdlEndpoint(wsdlUri), hedgeRequests);
+
+      final int code = response.getStatusCode();
+
+      if (code != HttpStatus.SC_OK)
+      {
+        throw new MojoExecutionException(
+          "Failed getting the WSDL! Got HTTP Code " + code);
+      }
+
+      InputStream is = null;
+
+      try
+      {
+        // Only needed by the executions without a filename.
+        final String defaultFilename = getDefaultFilename(response);
+
+        if (defaultFilename == null && logger.isDebugEnabled())
+        {
+          logger.debug("No filename from server.");
+
+          debugResponse(response);
+        }
+
+        if (!cacheDirectory.exists())
+        {
+          cacheDirectory.mkdirs();
+        }
+
+        final File wsdlFile = new File(cacheDirectory, CACHED_FILENAME);
+
+        logger.info("Saving WSDL to '" + wsdlFile + "'...");
+
+        is = response.getContent();
+
+        Files.copy(is, wsdlFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        return new DownloadedWsdl(wsdlFile, defaultFilename);
+      }
+      catch (IOException ex)
+      {
+        throw new MojoExecutionException("Failed saving the WSDL!", ex);
+      }
+      catch (ParseException ex)
+      {
+        throw new MojoExecutionException("Failed saving the WSDL!", ex);
+      }
+      finally
+      {
+        if (is != null)
+        {
+          try
+          {
+            is.close();
+          }
+          catch (IOException ex)
+          {
+            logger.warn(ex.getMessage(), ex);
+          }
+        }
+      }
+    }
+    catch (IOException ex)
+    {
+      throw new MojoExecutionException("Cannot get WSDL!", ex);
+    }
+  }
+
+  /**
+   * Get the name of the WSDL file provided by the resource server.
+   *
+   * @param response The WSDL response.
+   *
+   * @return The file name or null if none.
+   *
+   * @throws ParseException If the header cannot be parsed.
+   */
+  private static String getDefaultFilename(final Response response)
+  {
+    final String header = response.getFirstHeader("Content-Disposition");
+
+    if (header == null)
+    {
+      return null;
+    }
+
+    final HeaderElement[] elements =
+      BasicHeaderValueParser.parseElements(header, null);
+
+    final NameValuePair parameter = elements.length == 0 ? null :
+      elements[0].getParameterByName("filename");
+
+    return parameter == null ? null : parameter.getValue();
+  }
+
+  /**
+   * Send the WSDL request.<br/>
+   * If enough latencies are known and no response comes within the 95th
+   * percentile of them, a second request is sent and the first response to
+   * come is used.<br/>
+   * A single latency is recorded per call, counted from the first request so
+   * that the slow responses cut short by hedging still count.
+   *
+   * @param url           URL of the WSDL.
+   * @param endpoint      Endpoint of the WSDL in the latency history.
+   * @param hedgeRequests True to allow a second request.
+   *
+   * @return The response.
+   *
+   * @throws IOException If all the requests failed.
+   */
+  private Response getWsdl(final String url, final String endpoint,
+                           final boolean hedgeRequests)
+    throws
+    IOException
+  {
+    final long hedgeDelay = hedgeRequests ?
+      latencies.getPercentile(endpoint, 95) : -1;
+
+    if (hedgeDelay < 0)
+    {
+      return execute(transport.get(url), endpoint);
+    }
+
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    final CompletionService<Response> completionService =
+      new ExecutorCompletionService<Response>(executor);
+    final Map<Future<Response>, Request> requests =
+      new LinkedHashMap<Future<Response>, Request>();
+    final long start = System.currentTimeMillis();
+
+    Request winner = null;
+
+    try
+    {
+      submitWsdlRequest(url, endpoint, completionService, requests);
+
+      Future<Response> done =
+        completionService.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+
+      if (done == null)
+      {
+        logger.info("No response after " + hedgeDelay +
+          " ms. Sending another WSDL request...");
+
+        submitWsdlRequest(url, endpoint, completionService, requests);
+      }
+
+      for (int pending = requests.size();; pending--)
+      {
+        if (done == null)
+        {
+          done = completionService.take();
+        }
+
+        try
+        {
+          final Response response = done.get();
+
+          winner = requests.get(done);
+
+          recordLatency(endpoint, System.currentTimeMillis() - start);
+
+          return response;
+        }
+        catch (ExecutionException ex)
+        {
+          if (pending == 1)
+          {
+            final Throwable cause = ex.getCause();
+
+            if (cause instanceof IOException)
+            {
+              throw (IOException) cause;
+            }
+
+            throw new IOException(cause.getMessage(), cause);
+          }
+
+          logger.warn("WSDL request failed. Waiting for the other one...",
+            ex.getCause());
+        }
+
+        done = null;
+      }
+    }
+    catch (InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+
+      throw new InterruptedIOException("Interrupted while getting the WSDL!");
+    }
+    finally
+    {
+      for (Request request : requests.values())
+      {
+        if (request != winner)
+        {
+          request.abort();
+        }
+      }
+
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Submit a WSDL request.
+   *
+   * @param url               URL of the WSDL.
+   * @param endpoint          Endpoint of the WSDL in the latency history.
+   * @param completionService Service executing the request.
+   * @param requests          Map of the submitted requests to add to.
+   */
+  private void submitWsdlRequest(
+    final String url, final String endpoint,
+    final CompletionService<Response> completionService,
+    final Map<Future<Response>, Request> requests)
+  {
+    final Request request = transport.get(url);
+
+    setTimeouts(request, endpoint);
+
+    requests.put(completionService.submit(new Callable<Response>()
+    {
+      @Override
+      public Response call() throws IOException
+      {
+        // The latency is recorded by the caller.
+        return request.execute();
+      }
+    }), request);
+  }
+
+  /**
+   * Save the WSDL and write its index in the same pass.
+   *
+   * @param content  The WSDL content.
+   * @param wsdlFile The file where to save the WSDL.
+   *
+   * @throws MojoExecutionException
+   */
+  private void saveIndexedWsdl(final InputStream content, final File wsdlFile)
+    throws
+    MojoExecutionException
+  {
+    final File indexFile = WsdlIndex.getIndexFile(wsdlFile);
+    final WsdlIndexWriter indexWriter = new WsdlIndexWriter();
+
+    OutputStream os = null;
+
+    try
+    {
+      os = new BufferedOutputStream(new FileOutputStream(wsdlFile));
+
+      indexWriter.parse(new CopyingInputStream(content, os));
+
+      logger.info("Saving WSDL index to '" + indexFile + "'...");
+
+      indexWriter.write(indexFile);
+    }
+    catch (IOException ex)
+    {
+      throw new MojoExecutionException("Failed saving the WSDL!", ex);
+    }
+    catch (XMLStreamException ex)
+    {
+      throw new MojoExecutionException("Failed indexing the WSDL!", ex);
+    }
+    finally
+    {
+      try
+      {
+        content.close();
+
+        if (os != null)
+        {
+          os.close();
+        }
+      }
+      catch (IOException ex)
+      {
+        logger.warn(ex.getMessage(), ex);
+      }
+    }
+  }
+
+  /**
+   * Write the index of a saved WSDL.
+   *
+   * @param wsdlFile The WSDL file.
+   *
+   * @throws MojoExecutionException
+   */
+  private void indexWsdl(final File wsdlFile) throws MojoExecutionException
+  {
+    final File indexFile = WsdlIndex.getIndexFile(wsdlFile);
+    final WsdlIndexWriter indexWriter = new WsdlIndexWriter();
+
+    InputStream is = null;
+
+    try
+    {
+      is = new BufferedInputStream(new FileInputStream(wsdlFile));
+
+      indexWriter.parse(is);
+
+      logger.info("Saving WSDL index to '" + indexFile + "'...");
+
+      indexWriter.write(indexFile);
+    }
+    catch (IOException ex)
+    {
+      throw new MojoExecutionException("Failed indexing the WSDL!", ex);
+    }
+    catch (XMLStreamException ex)
+    {
+      throw new MojoExecutionException("Failed indexing the WSDL!", ex);
+    }
+    finally
+    {
+      if (is != null)
+      {
+        try
+        {
+          is.close();
+        }
+        catch (IOException ex)
+        {
+          logger.warn(ex.getMessage(), ex);
+        }
+      }
+    }
+  }
+
+  /**
+   * Tell if a session is older than an hour.
+   *
+   * @return String The resource server for the session if the session hasn't
+   *         expired. Null otherwise.
+   */
+  private String getResourceServer()
+  {
+    // Cookie 'oid' expiry date is supposed to be in 2 years in the future from
+    // the date of creation of the cookie.
+    final Calendar cal = GregorianCalendar.getInstance();
+    cal.add(Calendar.YEAR, 2);
+    cal.add(Calendar.HOUR, -1);
+
+    final Date futureDate = cal.getTime();
+
+    if (logger.isDebugEnabled())
+    {
+      logger.debug("Future date: " + futureDate);
+    }
+
+    String resourceServer = null;
+
+    for (SessionCookie cookie : cookieJar.getCookies())
+    {
+      final String name = cookie.getName();
+
+      if ("oid".equals(name))
+      {
+        final Date expiryDate = cookie.getExpiryDate();
+
+        if (logger.isDebugEnabled())
+        {
+          logger.debug("Expiry date: " + expiryDate);
+        }
+
+        if (futureDate.before(expiryDate))
+        {
+          resourceServer = "https://" + cookie.getDomain();
+        }
+
+        break;
+      }
+    }
+
+    return resourceServer;
+  }
+
+  /**
+   * Log in to a Salesforce authorization server.
+   *
+   * @return Redirection URL if successful.
+   *
+   * @throws MojoExecutionException
+   */
+  private String logIn() throws
+    MojoExecutionException
+  {
+    final String authorizationServer =
+      SANDBOX_ENV.equals(env) ? SANDBOX_AUTHORIZATION_SERVER :
+      DEV_PROD_AUTHORIZATION_SERVER;
+
+    logger.info("Logging in as " + username + " at authorization server at " +
+      authorizationServer + "...");
+
+    // The request body must contain these 2 values.
+    final Map<String, String> parametersBody =
+      new LinkedHashMap<String, String>();
+
+    parametersBody.put("un", username);
+    parametersBody.put("pw", password);
+
+    // Send a post request to the login URI.
+    final Request loginRequest =
+      transport.post(authorizationServer, parametersBody);
+
+    final String location;
+
+    try
+    {
+      final Response response = execute(loginRequest, LatencyHistory.LOGIN);
+
+      if (logger.isErrorEnabled())
+      {
+        debugResponse(response);
+      }
+      else
+      {
+        // Do not need the rest
+        loginRequest.abort();
+      }
+
+      final int code = response.getStatusCode();
+
+      if (code != HttpStatus.SC_MOVED_TEMPORARILY)
+      {
+        // No redirection. That means we're not logged in.
+        throw new MojoExecutionException(
+          "Cannot log in! Wrong credentials or need for activation for the current IP.");
+      }
+
+      location = response.getFirstHeader("Location");
+
+    }
+    catch (IOException ex)
+    {
+      throw new MojoExecutionException("Cannot log in!", ex);
+    }
+
+    return location;
+  }
+
+  /**
+   * Load cookies from the previous instance execution.
+   *
+   * @param env Salesforce environment. Either 'sandbox' or 'dev-prod'.
+   *
+   * @return The loaded cookie store or null if it can't load it.
+   */
+  private CookieStore loadCookies(final String env)
+  {
+    return (BasicCookieStore) load(env, COOKIES_SUFFIX, "cookies");
+  }
+
+  /**
+   * Load the latency history from the previous instance executions.
+   *
+   * @param env Salesforce environment. Either 'sandbox' or 'dev-prod'.
+   *
+   * @return The loaded latency history or null if it can't load it.
+   */
+  private LatencyHistory loadLatencyHistory(final String env)
+  {
+    return (LatencyHistory) load(env, LATENCIES_SUFFIX, "latencies");
+  }
+
+  /**
+   * Load an object saved as XML by the previous instance execution for the
+   * given Salesforce environment and current username.
+   *
+   * @param env    Salesforce environment. Either 'sandbox' or 'dev-prod'.
+   * @param suffix Suffix of the file.
+   * @param what   Description of the object for logging.
+   *
+   * @return The loaded object or null if it can't load it.
+   */
+  private Object load(final String env, final String suffix,
+                      final String what)
+  {
+    final File directory = new File(cookiesDirectory, env);
+
+    Object object = null;
+
+    if (directory.exists())
+    {
+      final File file = new File(directory, username + suffix);
+
+      if (file.exists())
+      {
+        logger.info(
+          "Found " + what + " from previous execution. Loading from '" +
+          file +
+          "'...");
+
+        ObjectInputStream ois = null;
+
+        try
+        {
+          ois = xstream.createObjectInputStream(
+            new BufferedInputStream(
+              new FileInputStream(file)));
+
+          object = ois.readObject();
+        }
+        catch (IOException ex)
+        {
+          logger.warn("Failed reading " + what + " from previous run!", ex);
+        }
+        catch (ClassNotFoundException ex)
+        {
+          logger.warn("Failed loading " + what + " from previous run!", ex);
+        }
+        finally
+        {
+          if (ois != null)
+          {
+            try
+            {
+              ois.close();
+            }
+            catch (IOException ex)
+            {
+              logger.warn(ex.getMessage(), ex);
+            }
+          }
+        }
+      }
+    }
+
+    return object;
+  }
+
+  /**
+   * Display the content of the HTTP response.<br/>
+   * <b>CAUTION:</b> Calling this method will consume the response content
+   * InputStream!
+   *
+   * @param response The HTTP response of which to display the content.
+   */
+  private void debugResponse(final Response response)
+  {
+    logger.debug("Displaying content:");
+
+    BufferedReader br = null;
+
+    try
+    {
+      br = new BufferedReader(
+        new InputStreamReader(response.getContent()));
+
+      for (String line = br.readLine(); line != null; line = br.readLine())
+      {
+        logger.debug(line);
+      }
+    }
+    catch (IOException ex)
+    {
+      logger.error("Failed displaying content!", ex);
+    }
+    finally
+    {
+      if (br != null)
+      {
+        try
+        {
+          br.close();
+        }
+        catch (IOException ex)
+        {
+          logger.warn(ex.getMessage(), ex);
+        }
+      }
+    }
+  }
+
+  /**
+   * Execute an HTTP redirection to set additional cookies related to the
+   * resource server session.
+   *
+   * @param redirectUrl The URL to redirect to.
+   *
+   * @return The base URL of the resource server.
+   *
+   * @throws MojoExecutionException
+   */
+  private String redirect(String redirectUrl) throws
+    MojoExecutionException
+  {
+    final String resourceServer = redirectUrl.
+      substring(0, redirectUrl.indexOf('/', 8));
+
+    if (redirectUrl.startsWith(resourceServer +
+      "/_nc_external/identity/ic/ICRequired"))
+    {
+      throw new MojoExecutionException(
+        "Need activation. Open the below URL with a browser from the same public IP:\n" +
+        redirectUrl);
+    }
+
+    logger.info("Accessing resource server at " + redirectUrl);
+
+    final Request redirectRequest = transport.get(redirectUrl);
+
+    try
+    {
+      final Response response =
+        execute(redirectRequest, LatencyHistory.REDIRECT);
+
+      if (logger.isErrorEnabled())
+      {
+        debugResponse(response);
+      }
+      else
+      {
+        // Do not need the rest
+        redirectRequest.abort();
+      }
+    }
+    catch (IOException ex)
+    {
+      throw new MojoExecutionException("Cannot access resource server!", ex);
+    }
+
+    return resourceServer;
+  }
+
+  /**
+   * Save the cookie store for the given Salesforce environment and current
+   * username.
+   *
+   * @param env         Salesforce environment. Either 'sandbox' or 'dev-prod'.
+   * @param cookieStore The cookie store to save.
+   */
+  private void saveCookies(final String env, final CookieStore cookieStore)
+  {
+    save(env, COOKIES_SUFFIX, "cookies", cookieStore);
+  }
+
+  /**
+   * Save an object as XML for the given Salesforce environment and current
+   * username.
+   *
+   * @param env    Salesforce environment. Either 'sandbox' or 'dev-prod'.
+   * @param suffix Suffix of the file.
+   * @param what   Description of the object for logging.
+   * @param object The object to save.
+   */
+  private void save(final String env, final String suffix, final String what,
+                    final Object object)
+  {
+    final File directory = new File(cookiesDirectory, env);
+
+    if (!directory.exists())
+    {
+      directory.mkdirs();
+    }
+
+    final File file = new File(directory, username + suffix);
+
+    logger.info("Saving " + what + " to '" + file + "'...");
+
+    // Other downloaders of the build may save the same file, so it's written
+    // aside and then moved in place under a lock of the file.
+    synchronized (getLock(file))
+    {
+      File temp = null;
+      ObjectOutputStream oos = null;
+
+      try
+      {
+        temp = File.createTempFile(username + suffix, ".tmp", directory);
+
+        oos = xstream.createObjectOutputStream(
+          new BufferedOutputStream(
+            new FileOutputStream(temp)));
+
+        oos.writeObject(object);
+        oos.close();
+        oos = null;
+
+        moveAtomically(temp, file);
+        temp = null;
+      }
+      catch (IOException ex)
+      {
+        logger.warn("Failed saving " + what + " from current run!", ex);
+      }
+      catch (XStreamException ex)
+      {
+        logger.warn("Failed saving " + what + " from current run!", ex);
+      }
+      finally
+      {
+        if (oos != null)
+        {
+          try
+          {
+            oos.close();
+          }
+          catch (IOException ex)
+          {
+            logger.warn(ex.getMessage(), ex);
+          }
+        }
+
+        if (temp != null)
+        {
+          temp.delete();
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the lock of a saved file.
+   *
+   * @param file The file.
+   *
+   * @return The lock shared by all the instances saving the file.
+   */
+  private static Object getLock(final File file)
+  {
+    final File key = file.getAbsoluteFile();
+    final Object lock = new Object();
+    final Object previous = FILE_LOCKS.putIfAbsent(key, lock);
+
+    return previous == null ? lock : previous;
+  }
+
+  /**
+   * Replace a file by another one atomically when the file system allows it.
+   *
+   * @param source The new file.
+   * @param target The replaced file.
+   *
+   * @throws IOException If the file cannot be moved.
+   */
+  private static void moveAtomically(final File source, final File target)
+    throws IOException
+  {
+    try
+    {
+      Files.move(source.toPath(), target.toPath(),
+        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+    catch (AtomicMoveNotSupportedException ex)
+    {
+      Files.move(source.toPath(), target.toPath(),
+        StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * Execute a request with timeouts deduced from the latencies of the
+   * previous requests to the same endpoint and record its latency.
+   *
+   * @param request  The request.
+   * @param endpoint The requested endpoint.
+   *
+   * @return The response.
+   *
+   * @throws IOException
+   */
+  private Response execute(final Request request, final String endpoint)
+    throws
+    IOException
+  {
+    setTimeouts(request, endpoint);
+
+    final long start = System.currentTimeMillis();
+    final Response response = request.execute();
+
+    recordLatency(endpoint, System.currentTimeMillis() - start);
+
+    return response;
+  }
+
+  /**
+   * Set the timeouts of a request from the latencies of the previous requests
+   * to the same endpoint.
+   *
+   * @param request  The request.
+   * @param endpoint The requested endpoint.
+   */
+  private void setTimeouts(final Request request, final String endpoint)
+  {
+    request.setTimeouts(latencies.getConnectionTimeout(endpoint),
+      latencies.getSoTimeout(endpoint));
+  }
+
+  /**
+   * Record the latency of a request.
+   *
+   * @param endpoint The requested endpoint.
+   * @param latency  Time to first byte in ms.
+   */
+  private void recordLatency(final String endpoint, final long latency)
+  {
+    if (logger.isDebugEnabled())
+    {
+      logger.debug("Latency for " + endpoint + ": " + latency + " ms");
+    }
+
+    latencies.add(endpoint, latency);
+  }
+}
@@ -0,0 +1,626 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Read-only view of a WSDL index file written next to a downloaded WSDL.<br/>
+ * The file is memory mapped and entries are looked up by binary search so
+ * that tools can query operations, messages and complex types without parsing
+ * the WSDL again.
+ * <p/>
+ * Layout of the file (big endian):
+ * <pre>
+ * header    magic, version,
+ *           (entries offset, entry count) for each {@link Kind},
+ *           members offset, member count,
+ *           strings offset, string count
+ * entries   (name, namespace, base, base namespace, first member,
+ *           member count) sorted by name then namespace per kind
+ * members   (name, type, min occurs, max occurs, flags)
+ * strings   offset table followed by (length, UTF-8 bytes) records
+ * </pre>
+ *
+ * @author Victor Itkin
+ */
+public final class WsdlIndex
+{
+  /**
+   * Suffix appended to the WSDL file name for the index file.
+   */
+  public static final String SUFFIX = ".idx";
+
+  /**
+   * Magic number of index files ('SWIX').
+   */
+  static final int MAGIC = 0x53574958;
+
+  /**
+   * Version of the file layout.
+   */
+  static final int VERSION = 3;
+
+  /**
+   * Size in bytes of the header.
+   */
+  static final int HEADER_SIZE = 4 * (2 + 2 * Kind.values().length + 4);
+
+  /**
+   * Size in bytes of an entry record.
+   */
+  static final int ENTRY_SIZE = 4 * 6;
+
+  /**
+   * Size in bytes of a member record.
+   */
+  static final int MEMBER_SIZE = 4 * 5;
+
+  /**
+   * Max occurs value for 'unbounded'.
+   */
+  public static final int UNBOUNDED = -1;
+
+  /**
+   * Flag set on nillable members.
+   */
+  static final int NILLABLE = 1;
+
+  /**
+   * No string.
+   */
+  static final int NONE = -1;
+
+  static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * Kinds of indexed entries.
+   */
+  public enum Kind
+  {
+    /**
+     * Port type operations. Members are the 'input' and 'output' messages.
+     */
+    OPERATION,
+    /**
+     * Messages. Members are the parts.
+     */
+    MESSAGE,
+    /**
+     * Named complex types. Members are the fields.
+     */
+    COMPLEX_TYPE
+  }
+
+  private final ByteBuffer buffer;
+
+  private final int membersOffset;
+
+  private final int stringsOffset;
+
+  private final int stringCount;
+
+  /**
+   * Initialize the instance.
+   *
+   * @param buffer Content of the index file.
+   *
+   * @throws IOException If the content is not a valid index.
+   */
+  private WsdlIndex(final ByteBuffer buffer) throws IOException
+  {
+    this.buffer = buffer;
+
+    if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+    {
+      throw new IOException("Not a WSDL index!");
+    }
+
+    final int version = buffer.getInt(4);
+
+    if (version != VERSION)
+    {
+      throw new IOException("Unsupported WSDL index version " + version);
+    }
+
+    final int position = 8 + 8 * Kind.values().length;
+
+    membersOffset = buffer.getInt(position);
+    stringsOffset = buffer.getInt(position + 8);
+    stringCount = buffer.getInt(position + 12);
+  }
+
+  /**
+   * Open an index file.
+   *
+   * @param file The index file.
+   *
+   * @return The index.
+   *
+   * @throws IOException If the file cannot be read or is not a valid index.
+   */
+  public static WsdlIndex open(final File file) throws IOException
+  {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+    try
+    {
+      final FileChannel channel = raf.getChannel();
+
+      return new WsdlIndex(
+        channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+    finally
+    {
+      raf.close();
+    }
+  }
+
+  /**
+   * Get the index file of a WSDL file.
+   *
+   * @param wsdlFile The WSDL file.
+   *
+   * @return The index file.
+   */
+  public static File getIndexFile(final File wsdlFile)
+  {
+    return new File(wsdlFile.getParentFile(), wsdlFile.getName() + SUFFIX);
+  }
+
+  /**
+   * Look up an operation by name.
+   *
+   * @param name Name of the operation.
+   *
+   * @return The operation or null if not found.
+   */
+  public Entry getOperation(final String name)
+  {
+    return get(Kind.OPERATION, name);
+  }
+
+  /**
+   * Look up a message by name.
+   *
+   * @param name Name of the message.
+   *
+   * @return The message or null if not found.
+   */
+  public Entry getMessage(final String name)
+  {
+    return get(Kind.MESSAGE, name);
+  }
+
+  /**
+   * Look up a complex type by name.
+   *
+   * @param name Name of the complex type (e.g. 'Account').
+   *
+   * @return The complex type or null if not found.
+   */
+  public Entry getComplexType(final String name)
+  {
+    return get(Kind.COMPLEX_TYPE, name);
+  }
+
+  /**
+   * Look up a complex type by namespace and name.
+   *
+   * @param namespace Target namespace of the schema defining the complex type
+   *                  (e.g. 'urn:sobject.partner.soap.sforce.com') or null if
+   *                  none.
+   * @param name      Name of the complex type (e.g. 'Account').
+   *
+   * @return The complex type or null if not found.
+   */
+  public Entry getComplexType(final String namespace, final String name)
+  {
+    return get(Kind.COMPLEX_TYPE, namespace, name);
+  }
+
+  /**
+   * Look up an entry by name.<br/>
+   * If several namespaces define the name, the entry of the first namespace
+   * in alphabetical order is returned.
+   *
+   * @param kind Kind of the entry.
+   * @param name Name of the entry.
+   *
+   * @return The entry or null if not found.
+   */
+  public Entry get(final Kind kind, final String name)
+  {
+    final int offset = getEntriesOffset(kind);
+
+    int index = search(kind, null, name);
+
+    if (index < 0)
+    {
+      return null;
+    }
+
+    while (index > 0 && getString(
+      buffer.getInt(offset + (index - 1) * ENTRY_SIZE)).equals(name))
+    {
+      index--;
+    }
+
+    return new Entry(offset + index * ENTRY_SIZE);
+  }
+
+  /**
+   * Look up an entry by namespace and name.
+   *
+   * @param kind      Kind of the entry.
+   * @param namespace Target namespace of the entry or null if none.
+   * @param name      Name of the entry.
+   *
+   * @return The entry or null if not found.
+   */
+  public Entry get(final Kind kind, final String namespace, final String name)
+  {
+    final int index = search(kind, namespace == null ? "" : namespace, name);
+
+    return index < 0 ? null :
+      new Entry(getEntriesOffset(kind) + index * ENTRY_SIZE);
+  }
+
+  /**
+   * Binary search of an entry.
+   *
+   * @param kind      Kind of the entry.
+   * @param namespace Target namespace of the entry ('' if none) or null to
+   *                  match any namespace.
+   * @param name      Name of the entry.
+   *
+   * @return Position of a matching entry or -1 if none.
+   */
+  private int search(final Kind kind, final String namespace,
+                     final String name)
+  {
+    final int offset = getEntriesOffset(kind);
+
+    int low = 0;
+    int high = getEntryCount(kind) - 1;
+
+    while (low <= high)
+    {
+      final int middle = (low + high) >>> 1;
+      final int record = offset + middle * ENTRY_SIZE;
+
+      int comparison = getString(buffer.getInt(record)).compareTo(name);
+
+      if (comparison == 0 && namespace != null)
+      {
+        final String entryNamespace = getString(buffer.getInt(record + 4));
+
+        comparison = (entryNamespace == null ? "" : entryNamespace).compareTo(
+          namespace);
+      }
+
+      if (comparison < 0)
+      {
+        low = middle + 1;
+      }
+      else if (comparison > 0)
+      {
+        high = middle - 1;
+      }
+      else
+      {
+        return middle;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Get all the entries of a kind sorted by name then namespace.
+   *
+   * @param kind Kind of the entries.
+   *
+   * @return The entries.
+   */
+  public List<Entry> getEntries(final Kind kind)
+  {
+    final int offset = getEntriesOffset(kind);
+    final int count = getEntryCount(kind);
+
+    return new AbstractList<Entry>()
+    {
+      @Override
+      public Entry get(int index)
+      {
+        if (index < 0 || index >= count)
+        {
+          throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+
+        return new Entry(offset + index * ENTRY_SIZE);
+      }
+
+      @Override
+      public int size()
+      {
+        return count;
+      }
+    };
+  }
+
+  private int getEntriesOffset(final Kind kind)
+  {
+    return buffer.getInt(8 + 8 * kind.ordinal());
+  }
+
+  private int getEntryCount(final Kind kind)
+  {
+    return buffer.getInt(8 + 8 * kind.ordinal() + 4);
+  }
+
+  /**
+   * Decode a string from the string table.
+   *
+   * @param index Index of the string.
+   *
+   * @return The string or null for {@link #NONE}.
+   */
+  private String getString(final int index)
+  {
+    if (index == NONE)
+    {
+      return null;
+    }
+
+    if (index < 0 || index >= stringCount)
+    {
+      throw new IllegalStateException("Corrupted WSDL index!");
+    }
+
+    final int position = stringsOffset + 4 * stringCount +
+      buffer.getInt(stringsOffset + 4 * index);
+
+    final byte[] bytes = new byte[buffer.getShort(position) & 0xFFFF];
+
+    final ByteBuffer duplicate = buffer.duplicate();
+    duplicate.position(position + 2);
+    duplicate.get(bytes);
+
+    return new String(bytes, UTF_8);
+  }
+
+  /**
+   * Indexed operation, message or complex type.
+   */
+  public final class Entry
+  {
+    private final int record;
+
+    private Entry(final int record)
+    {
+      this.record = record;
+    }
+
+    /**
+     * @return Name of the entry.
+     */
+    public String getName()
+    {
+      return getString(buffer.getInt(record));
+    }
+
+    /**
+     * @return Target namespace of the schema defining a complex type, or of
+     *         the WSDL for operations and messages, or null if none.
+     */
+    public String getNamespace()
+    {
+      return getString(buffer.getInt(record + 4));
+    }
+
+    /**
+     * @return Qualified base type extended by a complex type as written in the
+     *         WSDL (e.g. 'ens:sObject') or null if none.
+     */
+    public String getBase()
+    {
+      return getString(buffer.getInt(record + 8));
+    }
+
+    /**
+     * @return Namespace of the base type, resolved from the namespace
+     *         declarations in scope of the extension (e.g.
+     *         'urn:sobject.partner.soap.sforce.com') or null if none.
+     */
+    public String getBaseNamespace()
+    {
+      return getString(buffer.getInt(record + 12));
+    }
+
+    /**
+     * @return Members declared by the entry itself. Inherited fields of a
+     *         complex type are not included.
+     */
+    public List<Member> getMembers()
+    {
+      final int first = buffer.getInt(record + 16);
+      final int count = buffer.getInt(record + 20);
+
+      return new AbstractList<Member>()
+      {
+        @Override
+        public Member get(int index)
+        {
+          if (index < 0 || index >= count)
+          {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+          }
+
+          return new Member(membersOffset + (first + index) * MEMBER_SIZE);
+        }
+
+        @Override
+        public int size()
+        {
+          return count;
+        }
+      };
+    }
+
+    /**
+     * Get the members of the entry including the fields inherited by a
+     * complex type from its base types, the base fields first.<br/>
+     * Base types are looked up by namespace and local name and the ones not
+     * found in the index are ignored.
+     *
+     * @return All the members of the entry.
+     */
+    public List<Member> getAllMembers()
+    {
+      final LinkedList<Entry> hierarchy = new LinkedList<Entry>();
+      final Set<Integer> records = new HashSet<Integer>();
+
+      for (Entry entry = this; entry != null && records.add(entry.record);
+        entry = entry.getBaseEntry())
+      {
+        hierarchy.addFirst(entry);
+      }
+
+      final List<Member> members = new ArrayList<Member>();
+
+      for (Entry entry : hierarchy)
+      {
+        members.addAll(entry.getMembers());
+      }
+
+      return members;
+    }
+
+    /**
+     * @return The complex type extended by the entry or null if none or not
+     *         found.
+     */
+    private Entry getBaseEntry()
+    {
+      final String base = getBase();
+
+      return base == null ? null : getComplexType(getBaseNamespace(),
+        base.substring(base.indexOf(':') + 1));
+    }
+
+    /**
+     * Look up a member by name, inherited ones included.
+     *
+     * @param name Name of the member.
+     *
+     * @return The member or null if not found.
+     */
+    public Member getMember(final String name)
+    {
+      for (Member member : getAllMembers())
+      {
+        if (name.equals(member.getName()))
+        {
+          return member;
+        }
+      }
+
+      return null;
+    }
+
+    @Override
+    public String toString()
+    {
+      return getName();
+    }
+  }
+
+  /**
+   * Operation message, message part or complex type field.
+   */
+  public final class Member
+  {
+    private final int record;
+
+    private Member(final int record)
+    {
+      this.record = record;
+    }
+
+    /**
+     * @return Name of the member.
+     */
+    public String getName()
+    {
+      return getString(buffer.getInt(record));
+    }
+
+    /**
+     * @return Qualified type as written in the WSDL (e.g. 'xsd:string') or
+     *         null if none.
+     */
+    public String getType()
+    {
+      return getString(buffer.getInt(record + 4));
+    }
+
+    /**
+     * @return Min occurs. Default to 1.
+     */
+    public int getMinOccurs()
+    {
+      return buffer.getInt(record + 8);
+    }
+
+    /**
+     * @return Max occurs or {@link WsdlIndex#UNBOUNDED}. Default to 1.
+     */
+    public int getMaxOccurs()
+    {
+      return buffer.getInt(record + 12);
+    }
+
+    /**
+     * @return True if the member is nillable.
+     */
+    public boolean isNillable()
+    {
+      return (buffer.getInt(record + 16) & NILLABLE) != 0;
+    }
+
+    @Override
+    public String toString()
+    {
+      return getName() + ':' + getType();
+    }
+  }
+}
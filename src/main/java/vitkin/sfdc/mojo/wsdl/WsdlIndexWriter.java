@@ -0,0 +1,511 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import vitkin.sfdc.mojo.wsdl.WsdlIndex.Kind;
+
+/**
+ * Collect operations, messages and complex types while streaming a WSDL and
+ * write them as a {@link WsdlIndex} file.
+ *
+ * @author Victor Itkin
+ */
+final class WsdlIndexWriter
+{
+  private static final String WSDL_NS = "http://schemas.xmlsoap.org/wsdl/";
+
+  private static final String XSD_NS = "http://www.w3.org/2001/XMLSchema";
+
+  private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+  static
+  {
+    FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    FACTORY.setProperty(
+      XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+  }
+
+  /**
+   * Entries by key (see {@link #getKey(String, String)}) for each kind. Sorted
+   * by name then namespace.
+   */
+  private final Map<Kind, TreeMap<String, IndexEntry>> entries =
+    new EnumMap<Kind, TreeMap<String, IndexEntry>>(Kind.class);
+
+  /**
+   * Initialize the instance.
+   */
+  WsdlIndexWriter()
+  {
+    for (Kind kind : Kind.values())
+    {
+      entries.put(kind, new TreeMap<String, IndexEntry>());
+    }
+  }
+
+  /**
+   * Parse a WSDL.<br/>
+   * The stream is consumed up to its end but not closed.
+   *
+   * @param in The WSDL content.
+   *
+   * @throws XMLStreamException If the WSDL cannot be parsed.
+   * @throws IOException        If the stream cannot be read.
+   */
+  void parse(final InputStream in) throws XMLStreamException, IOException
+  {
+    // Some parsers close the stream at the end of the document.
+    final XMLStreamReader reader = FACTORY.createXMLStreamReader(
+      new FilterInputStream(in)
+      {
+        @Override
+        public void close()
+        {
+        }
+      });
+
+    try
+    {
+      IndexEntry entry = null;
+      Kind kind = null;
+      String definitionsNamespace = null;
+      String schemaNamespace = null;
+      int elementDepth = 0;
+
+      while (reader.hasNext())
+      {
+        final int event = reader.next();
+
+        if (event == XMLStreamConstants.START_ELEMENT)
+        {
+          final String ns = reader.getNamespaceURI();
+          final String name = reader.getLocalName();
+
+          if (WSDL_NS.equals(ns))
+          {
+            if ("definitions".equals(name))
+            {
+              definitionsNamespace =
+                toNamespace(attribute(reader, "targetNamespace"));
+            }
+            else if ("message".equals(name))
+            {
+              kind = Kind.MESSAGE;
+              entry = add(kind, definitionsNamespace,
+                attribute(reader, "name"));
+            }
+            else if ("portType".equals(name))
+            {
+              kind = Kind.OPERATION;
+            }
+            else if ("binding".equals(name))
+            {
+              kind = null;
+            }
+            else if ("operation".equals(name) && kind == Kind.OPERATION)
+            {
+              entry = add(kind, definitionsNamespace,
+                attribute(reader, "name"));
+            }
+            else if (entry != null && (("part".equals(name) &&
+              kind == Kind.MESSAGE) || ("input".equals(name) ||
+              "output".equals(name)) && kind == Kind.OPERATION))
+            {
+              final String type = attribute(reader,
+                kind == Kind.MESSAGE ? "element" : "message");
+
+              entry.members.add(new String[]
+              {
+                kind == Kind.MESSAGE ? attribute(reader, "name") : name,
+                type == null ? attribute(reader, "type") : type,
+                null, null, null
+              });
+            }
+          }
+          else if (XSD_NS.equals(ns))
+          {
+            if ("schema".equals(name))
+            {
+              schemaNamespace =
+                toNamespace(attribute(reader, "targetNamespace"));
+            }
+            else if ("complexType".equals(name) && kind != Kind.COMPLEX_TYPE)
+            {
+              final String typeName = attribute(reader, "name");
+
+              if (typeName != null)
+              {
+                kind = Kind.COMPLEX_TYPE;
+                entry = add(kind, schemaNamespace, typeName);
+                elementDepth = 0;
+              }
+            }
+            else if ("extension".equals(name) && kind == Kind.COMPLEX_TYPE)
+            {
+              // Bases of nested anonymous types are not the type's one.
+              if (elementDepth == 0 && entry != null)
+              {
+                final String base = attribute(reader, "base");
+
+                if (base != null)
+                {
+                  final int colon = base.indexOf(':');
+
+                  entry.base = base;
+                  // Resolved with the namespace declarations in scope.
+                  entry.baseNamespace = toNamespace(reader.getNamespaceURI(
+                    colon < 0 ? "" : base.substring(0, colon)));
+                }
+              }
+            }
+            else if ("element".equals(name) && kind == Kind.COMPLEX_TYPE)
+            {
+              if (elementDepth++ == 0 && entry != null)
+              {
+                entry.members.add(new String[]
+                {
+                  attribute(reader, "name"),
+                  attribute(reader, "type"),
+                  attribute(reader, "minOccurs"),
+                  attribute(reader, "maxOccurs"),
+                  attribute(reader, "nillable")
+                });
+              }
+            }
+          }
+        }
+        else if (event == XMLStreamConstants.END_ELEMENT)
+        {
+          final String ns = reader.getNamespaceURI();
+          final String name = reader.getLocalName();
+
+          if (WSDL_NS.equals(ns) && ("message".equals(name) ||
+            "operation".equals(name)))
+          {
+            entry = null;
+          }
+          else if (XSD_NS.equals(ns) && "schema".equals(name))
+          {
+            schemaNamespace = null;
+          }
+          else if (XSD_NS.equals(ns) && kind == Kind.COMPLEX_TYPE)
+          {
+            if ("element".equals(name))
+            {
+              elementDepth--;
+            }
+            else if ("complexType".equals(name) && elementDepth == 0)
+            {
+              kind = null;
+              entry = null;
+            }
+          }
+        }
+      }
+    }
+    finally
+    {
+      reader.close();
+    }
+
+    // Consume whatever follows the root element.
+    final byte[] buffer = new byte[1024];
+
+    while (in.read(buffer) != -1)
+    {
+    }
+  }
+
+  /**
+   * Write the index file.
+   *
+   * @param file The index file.
+   *
+   * @throws IOException If the file cannot be written.
+   */
+  void write(final File file) throws IOException
+  {
+    final List<String> strings = new ArrayList<String>();
+    final Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+
+    int memberCount = 0;
+
+    for (TreeMap<String, IndexEntry> kindEntries : entries.values())
+    {
+      for (IndexEntry entry : kindEntries.values())
+      {
+        memberCount += entry.members.size();
+      }
+    }
+
+    final DataOutputStream out = new DataOutputStream(
+      new BufferedOutputStream(new FileOutputStream(file)));
+
+    try
+    {
+      out.writeInt(WsdlIndex.MAGIC);
+      out.writeInt(WsdlIndex.VERSION);
+
+      int offset = WsdlIndex.HEADER_SIZE;
+
+      for (Kind kind : Kind.values())
+      {
+        out.writeInt(offset);
+        out.writeInt(entries.get(kind).size());
+
+        offset += entries.get(kind).size() * WsdlIndex.ENTRY_SIZE;
+      }
+
+      out.writeInt(offset);
+      out.writeInt(memberCount);
+
+      offset += memberCount * WsdlIndex.MEMBER_SIZE;
+
+      // The string count goes in the header so collect the strings first.
+      for (TreeMap<String, IndexEntry> kindEntries : entries.values())
+      {
+        for (IndexEntry entry : kindEntries.values())
+        {
+          intern(entry.name, strings, stringIndexes);
+          intern(entry.namespace, strings, stringIndexes);
+          intern(entry.base, strings, stringIndexes);
+          intern(entry.baseNamespace, strings, stringIndexes);
+
+          for (String[] member : entry.members)
+          {
+            intern(member[0], strings, stringIndexes);
+            intern(member[1], strings, stringIndexes);
+          }
+        }
+      }
+
+      out.writeInt(offset);
+      out.writeInt(strings.size());
+
+      int first = 0;
+
+      for (TreeMap<String, IndexEntry> kindEntries : entries.values())
+      {
+        for (IndexEntry entry : kindEntries.values())
+        {
+          out.writeInt(intern(entry.name, strings, stringIndexes));
+          out.writeInt(intern(entry.namespace, strings, stringIndexes));
+          out.writeInt(intern(entry.base, strings, stringIndexes));
+          out.writeInt(intern(entry.baseNamespace, strings, stringIndexes));
+          out.writeInt(first);
+          out.writeInt(entry.members.size());
+
+          first += entry.members.size();
+        }
+      }
+
+      for (TreeMap<String, IndexEntry> kindEntries : entries.values())
+      {
+        for (IndexEntry entry : kindEntries.values())
+        {
+          for (String[] member : entry.members)
+          {
+            out.writeInt(intern(member[0], strings, stringIndexes));
+            out.writeInt(intern(member[1], strings, stringIndexes));
+            out.writeInt(occurs(member[2]));
+            out.writeInt(occurs(member[3]));
+            out.writeInt(Boolean.parseBoolean(member[4]) ?
+              WsdlIndex.NILLABLE : 0);
+          }
+        }
+      }
+
+      final List<byte[]> encoded = new ArrayList<byte[]>(strings.size());
+
+      int position = 0;
+
+      for (String string : strings)
+      {
+        final byte[] bytes = string.getBytes(WsdlIndex.UTF_8);
+
+        if (bytes.length > 0xFFFF)
+        {
+          throw new IOException("String too long for WSDL index: " + string);
+        }
+
+        out.writeInt(position);
+        encoded.add(bytes);
+
+        position += 2 + bytes.length;
+      }
+
+      for (byte[] bytes : encoded)
+      {
+        out.writeShort(bytes.length);
+        out.write(bytes);
+      }
+    }
+    finally
+    {
+      out.close();
+    }
+  }
+
+  /**
+   * Add an entry if not already defined in its namespace.
+   *
+   * @param kind      Kind of the entry.
+   * @param namespace Target namespace of the entry or null if none.
+   * @param name      Name of the entry.
+   *
+   * @return The entry to fill or null if the entry is already defined or has
+   *         no name.
+   */
+  private IndexEntry add(final Kind kind, final String namespace,
+                         final String name)
+  {
+    final TreeMap<String, IndexEntry> kindEntries = entries.get(kind);
+    final String key = getKey(namespace, name);
+
+    if (name == null || kindEntries.containsKey(key))
+    {
+      return null;
+    }
+
+    final IndexEntry entry = new IndexEntry(namespace, name);
+
+    kindEntries.put(key, entry);
+
+    return entry;
+  }
+
+  /**
+   * Get the key of an entry, sorting the entries by name then namespace like
+   * {@link WsdlIndex} looks them up.
+   *
+   * @param namespace Target namespace of the entry or null if none.
+   * @param name      Name of the entry.
+   *
+   * @return The key.
+   */
+  private static String getKey(final String namespace, final String name)
+  {
+    // No XML name contains a NUL character.
+    return name + '\0' + (namespace == null ? "" : namespace);
+  }
+
+  /**
+   * Operation, message or complex type being collected.
+   */
+  private static final class IndexEntry
+  {
+    private final String namespace;
+
+    private final String name;
+
+    /**
+     * Extended base type as written in the WSDL. Only complex types have one.
+     */
+    private String base;
+
+    private String baseNamespace;
+
+    /**
+     * Members as (name, type, min occurs, max occurs, nillable).
+     */
+    private final List<String[]> members = new ArrayList<String[]>();
+
+    private IndexEntry(final String namespace, final String name)
+    {
+      this.namespace = namespace;
+      this.name = name;
+    }
+  }
+
+  private static String attribute(final XMLStreamReader reader,
+                                  final String name)
+  {
+    return reader.getAttributeValue(null, name);
+  }
+
+  /**
+   * @return The namespace or null for no namespace.
+   */
+  private static String toNamespace(final String uri)
+  {
+    return uri == null || uri.isEmpty() ? null : uri;
+  }
+
+  private static int intern(final String string, final List<String> strings,
+                            final Map<String, Integer> stringIndexes)
+  {
+    if (string == null)
+    {
+      return WsdlIndex.NONE;
+    }
+
+    Integer index = stringIndexes.get(string);
+
+    if (index == null)
+    {
+      index = strings.size();
+      strings.add(string);
+      stringIndexes.put(string, index);
+    }
+
+    return index;
+  }
+
+  private static int occurs(final String value)
+  {
+    if (value == null)
+    {
+      return 1;
+    }
+
+    if ("unbounded".equals(value))
+    {
+      return WsdlIndex.UNBOUNDED;
+    }
+
+    try
+    {
+      return Integer.parseInt(value);
+    }
+    catch (NumberFormatException ex)
+    {
+      return 1;
+    }
+  }
+}
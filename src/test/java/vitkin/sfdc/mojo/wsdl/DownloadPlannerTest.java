@@ -0,0 +1,400 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
+import org.apache.maven.project.MavenProject;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+
+import org.junit.Test;
+
+import vitkin.sfdc.mojo.wsdl.DownloadPlanner.Download;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Planning of the 'download' executions by {@link DownloadPlanner}.
+ *
+ * @author Victor Itkin
+ */
+public class DownloadPlannerTest
+{
+  private static final String GROUP_ID = "vitkin.sfdc";
+
+  private static final String ARTIFACT_ID = "wsdl-maven-plugin";
+
+  private static final File ROOT = new File("/build").getAbsoluteFile();
+
+  private static final Date START = new Date(1000);
+
+  @Test
+  public void defaults() throws Exception
+  {
+    final MavenProject project = newProject("a");
+
+    addPlugin(project, configuration("username", "user@a.com",
+      "password", "secret"), newExecution("download", null));
+
+    final Download download = single(plan(project));
+    final File basedir = project.getBasedir();
+
+    assertEquals(WsdlDownloader.DEV_PROD_ENV, download.env);
+    assertEquals("user@a.com", download.username);
+    assertEquals("secret", download.password);
+    assertEquals(new File(basedir, "cookies"), download.cookiesDirectory);
+    assertEquals(new URI("soap/wsdl.jsp"), download.wsdlUri);
+    assertEquals(new File(basedir, "src/main/wsdl"), download.outputDirectory);
+    assertNull(download.filename);
+    assertFalse(download.generateIndex);
+    assertTrue(download.hedgeRequests);
+    assertEquals("apache", download.transport);
+  }
+
+  @Test
+  public void executionConfigurationOverridesPluginOne() throws Exception
+  {
+    final MavenProject project = newProject("a");
+
+    addPlugin(project, configuration("username", "user@a.com",
+      "password", "secret", "useSandbox", "true", "filename", "plugin.wsdl"),
+      newExecution("download", configuration("filename", "partner.wsdl",
+      "outputDirectory", "wsdl", "generateIndex", "true",
+      "hedgeRequests", "false", "transport", "jdk")));
+
+    final Download download = single(plan(project));
+
+    assertEquals(WsdlDownloader.SANDBOX_ENV, download.env);
+    assertEquals("user@a.com", download.username);
+    assertEquals("partner.wsdl", download.filename);
+    assertEquals(new File(project.getBasedir(), "wsdl"),
+      download.outputDirectory);
+    assertTrue(download.generateIndex);
+    assertFalse(download.hedgeRequests);
+    assertEquals("jdk", download.transport);
+  }
+
+  @Test
+  public void configurationThenSystemThenProjectProperties() throws Exception
+  {
+    final String property = "sfdc.wsdl.filename";
+    final MavenProject project = newProject("a");
+
+    addPlugin(project, configuration("username", "user@a.com",
+      "password", "secret"), newExecution("download", null));
+
+    assertNull(single(plan(project)).filename);
+
+    project.getProperties().setProperty(property, "project.wsdl");
+
+    assertEquals("project.wsdl", single(plan(project)).filename);
+
+    System.setProperty(property, "system.wsdl");
+
+    try
+    {
+      assertEquals("system.wsdl", single(plan(project)).filename);
+
+      addPlugin(project, configuration("username", "user@a.com",
+        "password", "secret"), newExecution("download",
+        configuration("filename", "configured.wsdl")));
+
+      final List<Download> downloads =
+        plan(project).values().iterator().next().values().iterator().next();
+
+      assertEquals("system.wsdl", downloads.get(0).filename);
+      assertEquals("configured.wsdl", downloads.get(1).filename);
+    }
+    finally
+    {
+      System.clearProperty(property);
+    }
+  }
+
+  @Test
+  public void groupedByOrganizationAndWsdl() throws Exception
+  {
+    final MavenProject a = newProject("a");
+    final MavenProject b = newProject("b");
+
+    addPlugin(a, configuration("username", "user@a.com", "password", "secret"),
+      newExecution("download", null),
+      newExecution("download", configuration("wsdlUri",
+      "services/wsdl/class/A")));
+    addPlugin(b, configuration("username", "user@a.com", "password", "secret"),
+      newExecution("download", null),
+      newExecution("download", configuration("useSandbox", "true")));
+
+    final Map<String, Map<String, List<Download>>> plan = plan(a, b);
+    final String prod =
+      WsdlDownloader.getOrgId(WsdlDownloader.DEV_PROD_ENV, "user@a.com");
+    final String sandbox =
+      WsdlDownloader.getOrgId(WsdlDownloader.SANDBOX_ENV, "user@a.com");
+
+    assertEquals(Arrays.asList(prod, sandbox),
+      Arrays.asList(plan.keySet().toArray()));
+
+    final String partnerKey =
+      SharedDownloads.getKey(START, prod, new URI("soap/wsdl.jsp"));
+    final String classKey = SharedDownloads.getKey(START, prod,
+      new URI("services/wsdl/class/A"));
+
+    assertEquals(Arrays.asList(partnerKey, classKey),
+      Arrays.asList(plan.get(prod).keySet().toArray()));
+
+    final List<Download> partner = plan.get(prod).get(partnerKey);
+
+    assertEquals(2, partner.size());
+    assertEquals(new File(a.getBasedir(), "src/main/wsdl"),
+      partner.get(0).outputDirectory);
+    assertEquals(new File(b.getBasedir(), "src/main/wsdl"),
+      partner.get(1).outputDirectory);
+    assertEquals(1, plan.get(prod).get(classKey).size());
+    assertEquals(1, plan.get(sandbox).size());
+  }
+
+  @Test
+  public void otherExecutionsAreIgnored() throws Exception
+  {
+    final MavenProject project = newProject("a");
+    final Xpp3Dom credentials =
+      configuration("username", "user@a.com", "password", "secret");
+
+    addPlugin(project, credentials, newExecution("await", null));
+    addPlugin(project, configuration("username", "user@a.com"),
+      newExecution("download", configuration("password", " ")));
+
+    final Plugin other = new Plugin();
+
+    other.setGroupId(GROUP_ID);
+    other.setArtifactId("other-plugin");
+    other.setConfiguration(credentials);
+    other.addExecution(newExecution("download", null));
+    project.getBuild().addPlugin(other);
+
+    assertTrue(plan(project).isEmpty());
+    assertTrue(plan(newProject("b")).isEmpty());
+  }
+
+  @Test
+  public void expressions() throws Exception
+  {
+    final MavenProject project = newProject("a");
+
+    project.getProperties().setProperty("wsdl.name",
+      "${project.artifactId}-${project.version}");
+
+    addPlugin(project, configuration("username", "user@a.com",
+      "password", "secret"), newExecution("download", configuration(
+      "cookiesDirectory", "${session.executionRootDirectory}/cookies",
+      "outputDirectory", "${project.build.directory}/wsdl",
+      "filename", "${wsdl.name}.wsdl")));
+
+    final Download download = single(plan(project));
+
+    assertEquals(new File(ROOT, "cookies"), download.cookiesDirectory);
+    assertEquals(new File(project.getBasedir(), "target/wsdl"),
+      download.outputDirectory);
+    assertEquals("a-1.0.wsdl", download.filename);
+
+    final DownloadPlanner planner = newPlanner();
+
+    assertEquals(project.getBasedir().getPath(),
+      planner.evaluate(project, "x", "${basedir}"));
+    assertEquals(project.getBasedir().getPath(),
+      planner.evaluate(project, "x", "${project.basedir}"));
+    assertEquals("test/a", planner.evaluate(project, "x",
+      "${project.groupId}/${project.artifactId}"));
+    assertEquals("/m2/repository",
+      planner.evaluate(project, "x", "${settings.localRepository}"));
+    assertEquals(System.getProperty("java.version"),
+      planner.evaluate(project, "x", "${java.version}"));
+    assertEquals("no expression", planner.evaluate(project, "x",
+      "no expression"));
+    assertNull(planner.evaluate(project, "x", null));
+
+    final Map<String, String> env = System.getenv();
+
+    if (!env.isEmpty())
+    {
+      final String name = env.keySet().iterator().next();
+
+      assertEquals("<" + env.get(name) + ">",
+        planner.evaluate(project, "x", "<${env." + name + "}>"));
+    }
+  }
+
+  @Test
+  public void unresolvedExpressionsFail() throws Exception
+  {
+    final MavenProject project = newProject("a");
+
+    project.getProperties().setProperty("cycle.a", "${cycle.b}");
+    project.getProperties().setProperty("cycle.b", "${cycle.a}");
+
+    assertUnresolved(project, "${session.unknown}/cookies");
+    assertUnresolved(project, "${env.SFDC_WSDL_UNDEFINED_VARIABLE}");
+    assertUnresolved(project, "${cycle.a}");
+    assertUnresolved(project, "${basedir/cookies");
+
+    addPlugin(project, configuration("username", "user@a.com",
+      "password", "secret"), newExecution("download", configuration(
+      "cookiesDirectory", "${session.unknown}/cookies")));
+
+    try
+    {
+      plan(project);
+
+      fail();
+    }
+    catch (MojoExecutionException ex)
+    {
+      assertTrue(ex.getMessage(),
+        ex.getMessage().contains("'${session.unknown}'"));
+      assertTrue(ex.getMessage(),
+        ex.getMessage().contains("'cookiesDirectory'"));
+    }
+  }
+
+  private static void assertUnresolved(final MavenProject project,
+                                       final String value)
+  {
+    try
+    {
+      newPlanner().evaluate(project, "x", value);
+
+      fail(value);
+    }
+    catch (MojoExecutionException ex)
+    {
+      // Expected.
+    }
+  }
+
+  private static Map<String, Map<String, List<Download>>> plan(
+    final MavenProject... projects) throws MojoExecutionException
+  {
+    return newPlanner().plan(Arrays.asList(projects));
+  }
+
+  private static Download single(
+    final Map<String, Map<String, List<Download>>> plan)
+  {
+    assertEquals(1, plan.size());
+
+    final Map<String, List<Download>> orgDownloads =
+      plan.values().iterator().next();
+
+    assertEquals(1, orgDownloads.size());
+
+    final List<Download> downloads = orgDownloads.values().iterator().next();
+
+    assertEquals(1, downloads.size());
+
+    return downloads.get(0);
+  }
+
+  private static DownloadPlanner newPlanner()
+  {
+    return new DownloadPlanner(new SystemStreamLog(), GROUP_ID, ARTIFACT_ID,
+      START, ROOT, "/m2/repository");
+  }
+
+  private static MavenProject newProject(final String artifactId)
+  {
+    final Model model = new Model();
+    final Build build = new Build();
+    final File basedir = new File(ROOT, artifactId);
+
+    model.setGroupId("test");
+    model.setArtifactId(artifactId);
+    model.setVersion("1.0");
+    build.setDirectory(new File(basedir, "target").getPath());
+    model.setBuild(build);
+
+    final MavenProject project = new MavenProject(model);
+
+    project.setFile(new File(basedir, "pom.xml"));
+
+    return project;
+  }
+
+  private static void addPlugin(final MavenProject project,
+                                final Xpp3Dom configuration,
+                                final PluginExecution... executions)
+  {
+    final Plugin plugin = new Plugin();
+
+    plugin.setGroupId(GROUP_ID);
+    plugin.setArtifactId(ARTIFACT_ID);
+    plugin.setConfiguration(configuration);
+
+    for (PluginExecution execution : executions)
+    {
+      plugin.addExecution(execution);
+    }
+
+    project.getBuild().addPlugin(plugin);
+  }
+
+  private static PluginExecution newExecution(final String goal,
+                                              final Xpp3Dom configuration)
+  {
+    final PluginExecution execution = new PluginExecution();
+
+    execution.setId(goal + "-" + System.nanoTime());
+    execution.addGoal(goal);
+    execution.setConfiguration(configuration);
+
+    return execution;
+  }
+
+  private static Xpp3Dom configuration(final String... values)
+  {
+    final Xpp3Dom configuration = new Xpp3Dom("configuration");
+
+    for (int i = 0; i < values.length; i += 2)
+    {
+      final Xpp3Dom child = new Xpp3Dom(values[i]);
+
+      child.setValue(values[i + 1]);
+      configuration.addChild(child);
+    }
+
+    return configuration;
+  }
+}
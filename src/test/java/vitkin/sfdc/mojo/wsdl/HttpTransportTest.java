@@ -0,0 +1,479 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import vitkin.sfdc.mojo.wsdl.HttpTransport.Request;
+import vitkin.sfdc.mojo.wsdl.HttpTransport.Response;
+
+/**
+ * Cookies, redirections, aborts and timeouts of the {@link HttpTransport}
+ * implementations against a local server, each transport having to behave
+ * the same.
+ *
+ * @author Victor Itkin
+ */
+@RunWith(Parameterized.class)
+public class HttpTransportTest
+{
+  /**
+   * Max time for an abort or a timeout to take effect (ms).
+   */
+  private static final long MAX_WAIT = 5000;
+
+  private static final long TWO_YEARS = 2L * 365 * 24 * 3600 * 1000;
+
+  private final String name;
+
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  private final Date oidExpiryDate =
+    new Date((System.currentTimeMillis() + TWO_YEARS) / 1000 * 1000);
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  private HttpServer server;
+
+  private String base;
+
+  private HttpTransport transport;
+
+  private CookieJar cookieJar;
+
+  public HttpTransportTest(final String name)
+  {
+    this.name = name;
+  }
+
+  @Parameters(name = "{0}")
+  public static Collection<Object[]> transports()
+  {
+    return Arrays.asList(new Object[][]
+    {
+      { "apache" }, { "jdk" }
+    });
+  }
+
+  @Before
+  public void setUp() throws Exception
+  {
+    server = HttpServer.create(
+      new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+
+    server.createContext("/login", new HttpHandler()
+    {
+      @Override
+      public void handle(final HttpExchange exchange) throws IOException
+      {
+        final SimpleDateFormat format = new SimpleDateFormat(
+          "EEE, dd-MMM-yyyy HH:mm:ss 'GMT'", Locale.US);
+
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+        exchange.getResponseHeaders().add("Set-Cookie", "sid=abc; Path=/");
+        exchange.getResponseHeaders().add("Set-Cookie",
+          "oid=xyz; Path=/; Expires=" + format.format(oidExpiryDate));
+        exchange.getResponseHeaders().add("Set-Cookie",
+          "scoped=1; Path=/other");
+        exchange.getResponseHeaders().add("Set-Cookie",
+          "foreign=1; Path=/; Domain=.example.com");
+
+        respond(exchange, 200, read(exchange.getRequestBody()));
+      }
+    });
+
+    server.createContext("/echo", new HttpHandler()
+    {
+      @Override
+      public void handle(final HttpExchange exchange) throws IOException
+      {
+        final String cookies =
+          exchange.getRequestHeaders().getFirst("Cookie");
+
+        respond(exchange, 200, cookies == null ? "" : cookies);
+      }
+    });
+
+    server.createContext("/redirect", new HttpHandler()
+    {
+      @Override
+      public void handle(final HttpExchange exchange) throws IOException
+      {
+        exchange.getResponseHeaders().add("Set-Cookie",
+          "redirected=1; Path=/");
+        exchange.getResponseHeaders().add("Location", "/echo");
+
+        respond(exchange, 302, "");
+      }
+    });
+
+    server.createContext("/slow", new HttpHandler()
+    {
+      @Override
+      public void handle(final HttpExchange exchange) throws IOException
+      {
+        await();
+
+        respond(exchange, 200, "late");
+      }
+    });
+
+    server.createContext("/stall", new HttpHandler()
+    {
+      @Override
+      public void handle(final HttpExchange exchange) throws IOException
+      {
+        exchange.sendResponseHeaders(200, 0);
+
+        final OutputStream out = exchange.getResponseBody();
+
+        out.write('x');
+        out.flush();
+
+        await();
+
+        out.close();
+      }
+    });
+
+    server.setExecutor(executor);
+    server.start();
+
+    base = "http://127.0.0.1:" + server.getAddress().getPort();
+
+    transport = WsdlDownloader.createTransport(name);
+    cookieJar = new CookieJar();
+
+    transport.setCookieJar(cookieJar);
+  }
+
+  @After
+  public void tearDown()
+  {
+    release.countDown();
+    transport.shutdown();
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void postStoresTheCookies() throws Exception
+  {
+    final Map<String, String> form = new LinkedHashMap<String, String>();
+
+    form.put("un", "a b");
+    form.put("pw", "é&=");
+
+    final Response response = transport.post(base + "/login", form).execute();
+
+    assertEquals(200, response.getStatusCode());
+    assertEquals("un=a+b&pw=%C3%A9%26%3D", read(response.getContent()));
+
+    final Map<String, SessionCookie> cookies =
+      new HashMap<String, SessionCookie>();
+
+    for (SessionCookie cookie : cookieJar.getCookies())
+    {
+      cookies.put(cookie.getName(), cookie);
+    }
+
+    // The cookies for another domain or path are rejected.
+    assertEquals(set("sid", "oid"), cookies.keySet());
+
+    final SessionCookie sid = cookies.get("sid");
+
+    assertEquals("abc", sid.getValue());
+    assertEquals("127.0.0.1", sid.getDomain());
+    assertEquals("/", sid.getPath());
+    assertNull(sid.getExpiryDate());
+    assertFalse(sid.isSecure());
+
+    final Date expiryDate = cookies.get("oid").getExpiryDate();
+
+    assertTrue(expiryDate.toString(), Math.abs(
+      expiryDate.getTime() - oidExpiryDate.getTime()) < MAX_WAIT);
+  }
+
+  @Test
+  public void matchingCookiesAreSent() throws Exception
+  {
+    read(transport.post(base + "/login", new HashMap<String, String>())
+      .execute().getContent());
+
+    assertEquals(set("sid=abc", "oid=xyz"),
+      cookies(transport.get(base + "/echo").execute()));
+  }
+
+  @Test
+  public void savedCookiesAreSent() throws Exception
+  {
+    cookieJar.add(new SessionCookie("sid", "saved", "127.0.0.1", "/", null,
+      false));
+    cookieJar.add(new SessionCookie("scoped", "1", "127.0.0.1", "/other", null,
+      false));
+    cookieJar.add(new SessionCookie("old", "1", "127.0.0.1", "/",
+      new Date(System.currentTimeMillis() - 1000), false));
+    cookieJar.add(new SessionCookie("secure", "1", "127.0.0.1", "/", null,
+      true));
+
+    assertEquals(set("sid=saved"),
+      cookies(transport.get(base + "/echo").execute()));
+  }
+
+  @Test
+  public void getFollowsRedirections() throws Exception
+  {
+    final Response response = transport.get(base + "/redirect").execute();
+
+    assertEquals(200, response.getStatusCode());
+    // The cookie set by the redirection is sent to its location.
+    assertEquals(set("redirected=1"), cookies(response));
+  }
+
+  @Test
+  public void postDoesNotFollowRedirections() throws Exception
+  {
+    final Response response =
+      transport.post(base + "/redirect", new HashMap<String, String>())
+      .execute();
+
+    assertEquals(302, response.getStatusCode());
+    assertEquals("/echo", response.getFirstHeader("location"));
+
+    read(response.getContent());
+  }
+
+  @Test
+  public void abortWhileWaitingForTheHeaders() throws Exception
+  {
+    final Request request = transport.get(base + "/slow");
+
+    final Future<Response> future = executor.submit(new Callable<Response>()
+    {
+      @Override
+      public Response call() throws IOException
+      {
+        return request.execute();
+      }
+    });
+
+    Thread.sleep(300);
+
+    request.abort();
+
+    try
+    {
+      future.get(MAX_WAIT, TimeUnit.MILLISECONDS);
+
+      fail("Aborted request executed!");
+    }
+    catch (ExecutionException ex)
+    {
+      assertTrue(ex.getCause().toString(),
+        ex.getCause() instanceof IOException);
+    }
+  }
+
+  @Test
+  public void abortWhileReadingTheContent() throws Exception
+  {
+    final Request request = transport.get(base + "/stall");
+    final InputStream content = request.execute().getContent();
+
+    assertEquals('x', content.read());
+
+    request.abort();
+
+    final long start = System.currentTimeMillis();
+
+    try
+    {
+      assertEquals(-1, content.read());
+    }
+    catch (IOException ex)
+    {
+      // Either way the read doesn't block.
+    }
+
+    assertTrue(System.currentTimeMillis() - start < MAX_WAIT);
+  }
+
+  @Test
+  public void soTimeoutAppliesToTheContent() throws Exception
+  {
+    final Request request = transport.get(base + "/stall");
+
+    request.setTimeouts(2000, 500);
+
+    final InputStream content = request.execute().getContent();
+
+    assertEquals('x', content.read());
+
+    final long start = System.currentTimeMillis();
+
+    try
+    {
+      content.read();
+
+      fail("Read without data!");
+    }
+    catch (SocketTimeoutException ex)
+    {
+      assertTrue(System.currentTimeMillis() - start < MAX_WAIT);
+    }
+
+    assertFalse(Thread.currentThread().isInterrupted());
+  }
+
+  @Test
+  public void connectionTimeoutBoundsTheHeadersWithoutSoTimeout()
+    throws Exception
+  {
+    // HttpClient waits for the headers as long as the socket timeout.
+    Assume.assumeTrue("jdk".equals(name));
+
+    final Request request = transport.get(base + "/slow");
+
+    request.setTimeouts(500, 0);
+
+    final long start = System.currentTimeMillis();
+
+    try
+    {
+      request.execute();
+
+      fail("Response after the timeout!");
+    }
+    catch (IOException ex)
+    {
+      assertTrue(System.currentTimeMillis() - start < MAX_WAIT);
+    }
+  }
+
+  private void await() throws IOException
+  {
+    try
+    {
+      release.await(30, TimeUnit.SECONDS);
+    }
+    catch (InterruptedException ex)
+    {
+      throw new IOException(ex);
+    }
+  }
+
+  private static void respond(final HttpExchange exchange, final int code,
+                              final String body) throws IOException
+  {
+    final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+
+    exchange.sendResponseHeaders(code, bytes.length == 0 ? -1 : bytes.length);
+
+    final OutputStream out = exchange.getResponseBody();
+
+    out.write(bytes);
+    out.close();
+  }
+
+  private static String read(final InputStream in) throws IOException
+  {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[1024];
+
+    try
+    {
+      for (int read; (read = in.read(buffer)) != -1;)
+      {
+        out.write(buffer, 0, read);
+      }
+    }
+    finally
+    {
+      in.close();
+    }
+
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static Set<String> cookies(final Response response)
+    throws IOException
+  {
+    final Set<String> cookies = new HashSet<String>();
+
+    for (String cookie : read(response.getContent()).split(";"))
+    {
+      if (!cookie.trim().isEmpty())
+      {
+        cookies.add(cookie.trim());
+      }
+    }
+
+    return cookies;
+  }
+
+  private static Set<String> set(final String... values)
+  {
+    return new HashSet<String>(Arrays.asList(values));
+  }
+}
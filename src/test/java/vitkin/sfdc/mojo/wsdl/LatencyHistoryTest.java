@@ -0,0 +1,211 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.thoughtworks.xstream.XStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Percentiles and timeouts of {@link LatencyHistory}.
+ *
+ * @author Victor Itkin
+ */
+public class LatencyHistoryTest
+{
+  private LatencyHistory history;
+
+  @Before
+  public void setUp()
+  {
+    history = new LatencyHistory();
+  }
+
+  @Test
+  public void noHistory()
+  {
+    assertEquals(-1, history.getPercentile(LatencyHistory.WSDL, 95));
+    assertEquals(LatencyHistory.DEFAULT_CONNECTION_TIMEOUT,
+      history.getConnectionTimeout(LatencyHistory.WSDL));
+    assertEquals(0, history.getSoTimeout(LatencyHistory.WSDL));
+  }
+
+  @Test
+  public void notEnoughHistory()
+  {
+    add(LatencyHistory.WSDL, 100, 200, 300, 400);
+
+    assertEquals(-1, history.getPercentile(LatencyHistory.WSDL, 50));
+    assertEquals(0, history.getSoTimeout(LatencyHistory.WSDL));
+  }
+
+  @Test
+  public void percentiles()
+  {
+    // Unsorted on purpose.
+    for (int i = 10; i >= 1; i--)
+    {
+      history.add(LatencyHistory.WSDL, i * 100);
+    }
+
+    assertEquals(100, history.getPercentile(LatencyHistory.WSDL, 0));
+    assertEquals(100, history.getPercentile(LatencyHistory.WSDL, 10));
+    assertEquals(500, history.getPercentile(LatencyHistory.WSDL, 50));
+    assertEquals(600, history.getPercentile(LatencyHistory.WSDL, 51));
+    assertEquals(1000, history.getPercentile(LatencyHistory.WSDL, 95));
+    assertEquals(1000, history.getPercentile(LatencyHistory.WSDL, 100));
+  }
+
+  @Test
+  public void endpointsAreSeparate()
+  {
+    add(LatencyHistory.LOGIN, 100, 100, 100, 100, 100);
+
+    assertEquals(100, history.getPercentile(LatencyHistory.LOGIN, 99));
+    assertEquals(-1, history.getPercentile(LatencyHistory.REDIRECT, 99));
+  }
+
+  @Test
+  public void oldestLatenciesAreDropped()
+  {
+    history.add(LatencyHistory.WSDL, 100000);
+
+    for (int i = 0; i < 50; i++)
+    {
+      history.add(LatencyHistory.WSDL, 100);
+    }
+
+    assertEquals(100, history.getPercentile(LatencyHistory.WSDL, 100));
+  }
+
+  @Test
+  public void timeoutsAreFourTimesThe99thPercentile()
+  {
+    add(LatencyHistory.WSDL, 4000, 4000, 4000, 4000, 5000);
+
+    assertEquals(20000, history.getConnectionTimeout(LatencyHistory.WSDL));
+    assertEquals(20000, history.getSoTimeout(LatencyHistory.WSDL));
+  }
+
+  @Test
+  public void timeoutsAreClampedLow()
+  {
+    add(LatencyHistory.WSDL, 10, 10, 10, 10, 10);
+
+    assertEquals(5000, history.getConnectionTimeout(LatencyHistory.WSDL));
+    assertEquals(10000, history.getSoTimeout(LatencyHistory.WSDL));
+  }
+
+  @Test
+  public void timeoutsAreClampedHigh()
+  {
+    add(LatencyHistory.WSDL, 50000, 50000, 50000, 50000, 500000);
+
+    assertEquals(LatencyHistory.MAX_CONNECTION_TIMEOUT,
+      history.getConnectionTimeout(LatencyHistory.WSDL));
+    assertEquals(600000, history.getSoTimeout(LatencyHistory.WSDL));
+  }
+
+  @Test
+  public void connectionTimeoutCanExceedTheDefault()
+  {
+    add(LatencyHistory.LOGIN, 10000, 10000, 10000, 10000, 10000);
+
+    assertEquals(40000, history.getConnectionTimeout(LatencyHistory.LOGIN));
+  }
+
+  @Test
+  public void wsdlEndpointsAreSeparate() throws Exception
+  {
+    final String partner =
+      LatencyHistory.getWsdlEndpoint(new URI("soap/wsdl.jsp"));
+    final String metadata =
+      LatencyHistory.getWsdlEndpoint(new URI("services/wsdl/metadata"));
+
+    add(partner, 100, 100, 100, 100, 100);
+    add(metadata, 9000, 9000, 9000, 9000, 9000);
+
+    assertEquals(100, history.getPercentile(partner, 95));
+    assertEquals(9000, history.getPercentile(metadata, 95));
+    assertEquals(-1, history.getPercentile(LatencyHistory.WSDL, 95));
+  }
+
+  @Test
+  public void copyIsIndependent()
+  {
+    add(LatencyHistory.WSDL, 100, 100, 100, 100, 100);
+
+    final LatencyHistory copy = history.copy();
+
+    add(LatencyHistory.WSDL, 900, 900, 900, 900, 900, 900);
+
+    assertEquals(100, copy.getPercentile(LatencyHistory.WSDL, 99));
+    assertEquals(900, history.getPercentile(LatencyHistory.WSDL, 99));
+  }
+
+  @Test
+  public void copyCanBeSavedWhileAdding() throws Exception
+  {
+    final XStream xstream = new XStream();
+    final AtomicBoolean done = new AtomicBoolean();
+
+    final Thread adder = new Thread()
+    {
+      @Override
+      public void run()
+      {
+        for (long i = 0; !done.get(); i++)
+        {
+          history.add(i % 2 == 0 ? LatencyHistory.WSDL : LatencyHistory.LOGIN,
+            i);
+        }
+      }
+    };
+
+    adder.start();
+
+    try
+    {
+      for (int i = 0; i < 500; i++)
+      {
+        xstream.toXML(history.copy());
+      }
+    }
+    finally
+    {
+      done.set(true);
+      adder.join();
+    }
+  }
+
+  private void add(final String endpoint, final long... latencies)
+  {
+    for (long latency : latencies)
+    {
+      history.add(endpoint, latency);
+    }
+  }
+}
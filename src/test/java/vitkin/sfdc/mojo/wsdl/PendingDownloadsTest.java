@@ -0,0 +1,182 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Background downloads of {@link PendingDownloads} and how they are waited
+ * for.
+ *
+ * @author Victor Itkin
+ */
+public class PendingDownloadsTest
+{
+  @Test
+  public void downloadsAreKeptByProject() throws Exception
+  {
+    final File a = newBasedir();
+    final File b = newBasedir();
+
+    PendingDownloads.submit(a, result(new File("a1.wsdl")));
+    PendingDownloads.submit(b, result(new File("b.wsdl")));
+    PendingDownloads.submit(a, result(new File("a2.wsdl")));
+
+    final List<Future<File>> downloads = PendingDownloads.remove(a);
+
+    assertEquals(2, downloads.size());
+    assertEquals(new File("a1.wsdl"),
+      downloads.get(0).get(10, TimeUnit.SECONDS));
+    assertEquals(new File("a2.wsdl"),
+      downloads.get(1).get(10, TimeUnit.SECONDS));
+
+    // Removed once.
+    assertTrue(PendingDownloads.remove(a).isEmpty());
+
+    assertEquals(1, PendingDownloads.remove(b).size());
+  }
+
+  @Test
+  public void nothingToAwait() throws Exception
+  {
+    PendingDownloads.await(newBasedir(), new SystemStreamLog());
+  }
+
+  @Test
+  public void awaitThrowsTheFirstFailure() throws Exception
+  {
+    final File basedir = newBasedir();
+    final MojoExecutionException first =
+      new MojoExecutionException("first");
+    final CountDownLatch release = new CountDownLatch(1);
+
+    // The first failure in submission order wins even if it comes last.
+    PendingDownloads.submit(basedir, new Callable<File>()
+    {
+      @Override
+      public File call() throws Exception
+      {
+        release.await(10, TimeUnit.SECONDS);
+
+        throw first;
+      }
+    });
+    PendingDownloads.submit(basedir, result(new File("ok.wsdl")));
+    PendingDownloads.submit(basedir, new Callable<File>()
+    {
+      @Override
+      public File call() throws Exception
+      {
+        try
+        {
+          throw new IllegalStateException("second");
+        }
+        finally
+        {
+          release.countDown();
+        }
+      }
+    });
+
+    final List<Throwable> logged = new ArrayList<Throwable>();
+
+    try
+    {
+      PendingDownloads.await(basedir, new SystemStreamLog()
+      {
+        @Override
+        public void error(final CharSequence content, final Throwable error)
+        {
+          logged.add(error);
+        }
+      });
+
+      fail("Failure not thrown!");
+    }
+    catch (MojoExecutionException ex)
+    {
+      assertSame(first, ex);
+    }
+
+    assertEquals(1, logged.size());
+    assertEquals("second", logged.get(0).getMessage());
+    assertTrue(PendingDownloads.remove(basedir).isEmpty());
+  }
+
+  @Test
+  public void otherFailuresAreWrapped() throws Exception
+  {
+    final File basedir = newBasedir();
+    final RuntimeException failure = new IllegalStateException("boom");
+
+    PendingDownloads.submit(basedir, new Callable<File>()
+    {
+      @Override
+      public File call()
+      {
+        throw failure;
+      }
+    });
+
+    try
+    {
+      PendingDownloads.await(basedir, new SystemStreamLog());
+
+      fail("Failure not thrown!");
+    }
+    catch (MojoExecutionException ex)
+    {
+      assertSame(failure, ex.getCause());
+    }
+  }
+
+  private static File newBasedir()
+  {
+    return new File("project-" + System.nanoTime());
+  }
+
+  private static Callable<File> result(final File file)
+  {
+    return new Callable<File>()
+    {
+      @Override
+      public File call()
+      {
+        return file;
+      }
+    };
+  }
+}
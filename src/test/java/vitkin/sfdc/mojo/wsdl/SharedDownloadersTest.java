@@ -0,0 +1,108 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import java.io.File;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Downloaders shared by organization with {@link SharedDownloaders}.
+ *
+ * @author Victor Itkin
+ */
+public class SharedDownloadersTest
+{
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void oneDownloaderPerOrganization() throws Exception
+  {
+    final File cookies = folder.newFolder("cookies");
+    final String key = SharedDownloaders.getKey(cookies,
+      WsdlDownloader.getOrgId(WsdlDownloader.DEV_PROD_ENV, "a@b.c"),
+      "apache");
+    final String otherKey = SharedDownloaders.getKey(cookies,
+      WsdlDownloader.getOrgId(WsdlDownloader.SANDBOX_ENV, "a@b.c"),
+      "apache");
+
+    final WsdlDownloader downloader = acquire(key, cookies);
+
+    try
+    {
+      assertSame(downloader, acquire(key, cookies));
+
+      final WsdlDownloader other = acquire(otherKey, cookies);
+
+      assertNotSame(downloader, other);
+
+      SharedDownloaders.release(otherKey);
+
+      assertFalse(SharedDownloaders.isInUse(otherKey));
+
+      // Still used by the first user.
+      SharedDownloaders.release(key);
+
+      assertTrue(SharedDownloaders.isInUse(key));
+    }
+    finally
+    {
+      SharedDownloaders.release(key);
+    }
+
+    assertFalse(SharedDownloaders.isInUse(key));
+
+    // A new one once the previous one is shut down.
+    assertNotSame(downloader, acquire(key, cookies));
+
+    SharedDownloaders.release(key);
+  }
+
+  @Test
+  public void keys() throws Exception
+  {
+    final File cookies = folder.newFolder("cookies");
+
+    assertTrue(SharedDownloaders.getKey(cookies, "org", "apache").equals(
+      SharedDownloaders.getKey(new File(cookies, "../cookies"), "org",
+      "apache")));
+    assertFalse(SharedDownloaders.getKey(cookies, "org", "apache").equals(
+      SharedDownloaders.getKey(cookies, "org", "jdk")));
+    assertFalse(SharedDownloaders.getKey(cookies, "org", "apache").equals(
+      SharedDownloaders.getKey(folder.getRoot(), "org", "apache")));
+  }
+
+  private static WsdlDownloader acquire(final String key, final File cookies)
+    throws Exception
+  {
+    return SharedDownloaders.acquire(key, new SystemStreamLog(),
+      WsdlDownloader.DEV_PROD_ENV, "a@b.c", "secret", cookies, "apache");
+  }
+}
@@ -0,0 +1,310 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Single downloads of {@link SharedDownloads}.
+ *
+ * @author Victor Itkin
+ */
+public class SharedDownloadsTest
+{
+  private static final DownloadedWsdl WSDL =
+    new DownloadedWsdl(new File("partner.wsdl"), "partner.wsdl");
+
+  @Test
+  public void keys() throws Exception
+  {
+    final Date start = new Date(1000);
+    final URI uri = new URI("soap/wsdl.jsp");
+
+    assertEquals(SharedDownloads.getKey(start, "dev-prod/a", uri),
+      SharedDownloads.getKey(new Date(1000), "dev-prod/a", uri));
+    assertFalse(SharedDownloads.getKey(start, "dev-prod/a", uri).equals(
+      SharedDownloads.getKey(new Date(2000), "dev-prod/a", uri)));
+    assertFalse(SharedDownloads.getKey(start, "dev-prod/a", uri).equals(
+      SharedDownloads.getKey(start, "sanbox/a", uri)));
+    assertFalse(SharedDownloads.getKey(start, "dev-prod/a", uri).equals(
+      SharedDownloads.getKey(start, "dev-prod/a", new URI("soap/wsdl.jsp?x"))));
+  }
+
+  @Test
+  public void concurrentCallersShareOneDownload() throws Exception
+  {
+    final String key = newKey();
+    final AtomicInteger runs = new AtomicInteger();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    final Callable<DownloadedWsdl> download = new Callable<DownloadedWsdl>()
+    {
+      @Override
+      public DownloadedWsdl call() throws Exception
+      {
+        runs.incrementAndGet();
+        started.countDown();
+        release.await();
+
+        return WSDL;
+      }
+    };
+
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    try
+    {
+      final List<Future<DownloadedWsdl>> futures =
+        new ArrayList<Future<DownloadedWsdl>>();
+
+      for (int i = 0; i < 8; i++)
+      {
+        futures.add(executor.submit(new Callable<DownloadedWsdl>()
+        {
+          @Override
+          public DownloadedWsdl call() throws MojoExecutionException
+          {
+            return SharedDownloads.get(key, download);
+          }
+        }));
+      }
+
+      assertTrue(started.await(10, TimeUnit.SECONDS));
+
+      // Let the other callers reach the shared download.
+      Thread.sleep(100);
+
+      release.countDown();
+
+      for (Future<DownloadedWsdl> future : futures)
+      {
+        assertSame(WSDL, future.get(10, TimeUnit.SECONDS));
+      }
+
+      assertEquals(1, runs.get());
+
+      // Later callers get the same download too.
+      assertSame(WSDL, SharedDownloads.get(key, download));
+      assertEquals(1, runs.get());
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void failedDownloadIsForgotten() throws Exception
+  {
+    final String key = newKey();
+    final MojoExecutionException failure =
+      new MojoExecutionException("Cannot log in!");
+
+    try
+    {
+      SharedDownloads.get(key, new Callable<DownloadedWsdl>()
+      {
+        @Override
+        public DownloadedWsdl call() throws MojoExecutionException
+        {
+          throw failure;
+        }
+      });
+
+      fail();
+    }
+    catch (MojoExecutionException ex)
+    {
+      assertSame(failure, ex);
+    }
+
+    assertSame(WSDL, SharedDownloads.get(key, new Callable<DownloadedWsdl>()
+    {
+      @Override
+      public DownloadedWsdl call()
+      {
+        return WSDL;
+      }
+    }));
+  }
+
+  @Test
+  public void otherFailuresAreWrapped() throws Exception
+  {
+    final IllegalStateException failure = new IllegalStateException();
+
+    try
+    {
+      SharedDownloads.get(newKey(), new Callable<DownloadedWsdl>()
+      {
+        @Override
+        public DownloadedWsdl call()
+        {
+          throw failure;
+        }
+      });
+
+      fail();
+    }
+    catch (MojoExecutionException ex)
+    {
+      assertSame(failure, ex.getCause());
+    }
+  }
+
+  @Test
+  public void doneTargets() throws Exception
+  {
+    final String key = newKey();
+    final File directory = new File("target/wsdl");
+
+    assertFalse(SharedDownloads.isDone(key, directory, null, false));
+
+    SharedDownloads.setDone(key, directory, null, true);
+
+    assertTrue(SharedDownloads.isDone(key, directory, null, true));
+    assertTrue(SharedDownloads.isDone(key, directory, null, false));
+    assertTrue(SharedDownloads.isDone(key, new File("target/./wsdl"), null,
+      false));
+    assertTrue(SharedDownloads.isDone(key, directory.getAbsoluteFile(), null,
+      false));
+    assertFalse(SharedDownloads.isDone(key, directory, "partner.wsdl", false));
+    assertFalse(SharedDownloads.isDone(key, new File("target"), null, false));
+    assertFalse(SharedDownloads.isDone(newKey(), directory, null, false));
+
+    SharedDownloads.setDone(key, directory, "partner.wsdl", false);
+
+    assertTrue(SharedDownloads.isDone(key, directory, "partner.wsdl", false));
+    assertFalse(SharedDownloads.isDone(key, directory, "partner.wsdl", true));
+  }
+
+  @Test
+  public void nextBuildEvictsThePreviousOne() throws Exception
+  {
+    final URI uri = new URI("soap/wsdl.jsp");
+    final Date previous = new Date(System.nanoTime());
+    final Date next = new Date(previous.getTime() + 1);
+    final String previousKey =
+      SharedDownloads.getKey(previous, "dev-prod/test", uri);
+    final String nextKey = SharedDownloads.getKey(next, "dev-prod/test", uri);
+    final File directory = new File("target/wsdl");
+    final AtomicInteger runs = new AtomicInteger();
+
+    final Callable<DownloadedWsdl> download = new Callable<DownloadedWsdl>()
+    {
+      @Override
+      public DownloadedWsdl call()
+      {
+        runs.incrementAndGet();
+
+        return WSDL;
+      }
+    };
+
+    SharedDownloads.startBuild(previous);
+    SharedDownloads.get(previousKey, download);
+    SharedDownloads.setDone(previousKey, directory, null, false);
+
+    // Executions of the same build keep the entries.
+    SharedDownloads.startBuild(previous);
+    SharedDownloads.get(previousKey, download);
+
+    assertEquals(1, runs.get());
+    assertTrue(SharedDownloads.isDone(previousKey, directory, null, false));
+
+    final File basedir = new File("target/pending-" + System.nanoTime());
+    final CountDownLatch release = new CountDownLatch(1);
+
+    PendingDownloads.submit(basedir, new Callable<File>()
+    {
+      @Override
+      public File call() throws Exception
+      {
+        release.await();
+
+        return null;
+      }
+    });
+
+    SharedDownloads.startBuild(next);
+
+    assertFalse(SharedDownloads.isDone(previousKey, directory, null, false));
+    assertTrue(PendingDownloads.remove(basedir).isEmpty());
+
+    SharedDownloads.get(previousKey, download);
+
+    assertEquals(2, runs.get());
+
+    SharedDownloads.get(nextKey, download);
+    SharedDownloads.setDone(nextKey, directory, null, false);
+
+    assertEquals(3, runs.get());
+    assertTrue(SharedDownloads.isDone(nextKey, directory, null, false));
+  }
+
+  @Test
+  public void cacheDirectories() throws Exception
+  {
+    final File target = new File("target");
+    final URI uri = new URI("soap/wsdl.jsp");
+    final String key =
+      SharedDownloads.getKey(new Date(1000), "dev-prod/a", uri);
+    final File directory = SharedDownloads.getCacheDirectory(target, key);
+
+    assertEquals(new File(target, "sfdc-wsdl"), directory.getParentFile());
+
+    // The next builds download to the same directory.
+    assertEquals(directory, SharedDownloads.getCacheDirectory(target,
+      SharedDownloads.getKey(new Date(2000), "dev-prod/a", uri)));
+    assertFalse(directory.equals(SharedDownloads.getCacheDirectory(target,
+      SharedDownloads.getKey(new Date(1000), "dev-prod/b", uri))));
+    assertFalse(directory.equals(SharedDownloads.getCacheDirectory(target,
+      SharedDownloads.getKey(new Date(1000), "dev-prod/a",
+      new URI("soap/wsdl.jsp?x")))));
+  }
+
+  private static String newKey() throws Exception
+  {
+    return SharedDownloads.getKey(new Date(System.nanoTime()), "dev-prod/test",
+      new URI("soap/wsdl.jsp"));
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Copies of shared WSDL downloads by {@link WsdlDownloader}.
+ *
+ * @author Victor Itkin
+ */
+public class WsdlDownloaderTest
+{
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private HttpTransport transport;
+
+  private WsdlDownloader downloader;
+
+  private DownloadedWsdl wsdl;
+
+  @Before
+  public void setUp() throws IOException
+  {
+    transport = new ApacheHttpTransport();
+    downloader = new WsdlDownloader(new SystemStreamLog(),
+      WsdlDownloader.DEV_PROD_ENV, "user.name@domain.tld", "secret",
+      folder.newFolder("cookies"), transport);
+
+    // Downloaded by an execution overriding the file name.
+    final File file = new File(folder.newFolder("a"), "custom.wsdl");
+    final OutputStream os = new FileOutputStream(file);
+
+    try
+    {
+      os.write("<definitions/>".getBytes("UTF-8"));
+    }
+    finally
+    {
+      os.close();
+    }
+
+    wsdl = new DownloadedWsdl(file, "partner.wsdl");
+  }
+
+  @After
+  public void tearDown()
+  {
+    downloader.shutdown();
+  }
+
+  @Test
+  public void copyUsesTheServerFilename() throws Exception
+  {
+    final File copy =
+      downloader.copy(wsdl, new File(folder.getRoot(), "b"), null, false);
+
+    assertEquals("partner.wsdl", copy.getName());
+    assertTrue(copy.isFile());
+  }
+
+  @Test
+  public void copyUsesTheFilenameOverride() throws Exception
+  {
+    final File copy = downloader.copy(wsdl, new File(folder.getRoot(), "b"),
+      "other.wsdl", true);
+
+    assertEquals("other.wsdl", copy.getName());
+    assertTrue(WsdlIndex.getIndexFile(copy).isFile());
+  }
+
+  @Test(expected = MojoExecutionException.class)
+  public void copyNeedsAFilename() throws Exception
+  {
+    downloader.copy(new DownloadedWsdl(wsdl.getFile(), null),
+      new File(folder.getRoot(), "b"), null, false);
+  }
+}
@@ -0,0 +1,338 @@
+/*
+ * #%L
+ * SFDC WSDL Maven Plugin
+ * %%
+ * Copyright (C) 2013 Victor Itkin
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package vitkin.sfdc.mojo.wsdl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import vitkin.sfdc.mojo.wsdl.WsdlIndex.Entry;
+import vitkin.sfdc.mojo.wsdl.WsdlIndex.Kind;
+import vitkin.sfdc.mojo.wsdl.WsdlIndex.Member;
+
+/**
+ * Round trip of a WSDL through {@link WsdlIndexWriter} and {@link WsdlIndex}.
+ *
+ * @author Victor Itkin
+ */
+public class WsdlIndexTest
+{
+  private static final String SOBJECT_NS =
+    "urn:sobject.partner.soap.sforce.com";
+
+  private static final String METADATA_NS = "urn:metadata.soap.sforce.com";
+
+  private static final String WSDL =
+    "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+    "<definitions xmlns=\"http://schemas.xmlsoap.org/wsdl/\"" +
+    " targetNamespace=\"urn:partner.soap.sforce.com\"" +
+    " xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\"" +
+    " xmlns:tns=\"urn:partner.soap.sforce.com\"" +
+    " xmlns:ens=\"urn:sobject.partner.soap.sforce.com\">\n" +
+    " <types>\n" +
+    "  <schema xmlns=\"http://www.w3.org/2001/XMLSchema\"" +
+    " targetNamespace=\"" + SOBJECT_NS + "\">\n" +
+    "   <complexType name=\"sObject\"><sequence>\n" +
+    "    <element name=\"Id\" type=\"tns:ID\" nillable=\"true\"" +
+    " minOccurs=\"0\"/>\n" +
+    "   </sequence></complexType>\n" +
+    "   <complexType name=\"Account\"><complexContent>\n" +
+    "    <extension base=\"ens:sObject\"><sequence>\n" +
+    "     <element name=\"Name\" type=\"xsd:string\" nillable=\"true\"" +
+    " minOccurs=\"0\"/>\n" +
+    "     <element name=\"Contacts\" minOccurs=\"0\" maxOccurs=\"unbounded\">" +
+    "<complexType><complexContent><extension base=\"ens:Other\"><sequence>" +
+    "<element name=\"inner\" type=\"xsd:int\"/>" +
+    "</sequence></extension></complexContent></complexType></element>\n" +
+    "     <element name=\"\u00c9t\u00e9\" type=\"xsd:string\"/>\n" +
+    "    </sequence></extension>\n" +
+    "   </complexContent></complexType>\n" +
+    "   <complexType name=\"Account\"><sequence>" +
+    "<element name=\"Duplicate\" type=\"xsd:string\"/></sequence>" +
+    "</complexType>\n" +
+    "   <element name=\"login\"><complexType><sequence>" +
+    "<element name=\"username\" type=\"xsd:string\"/>" +
+    "</sequence></complexType></element>\n" +
+    "   <complexType name=\"Flow\"><complexContent>" +
+    "<extension base=\"ens:sObject\"><sequence>" +
+    "<element name=\"Description\" type=\"xsd:string\"/>" +
+    "</sequence></extension></complexContent></complexType>\n" +
+    "  </schema>\n" +
+    // Same names, and the same prefix, in another namespace.
+    "  <schema xmlns=\"http://www.w3.org/2001/XMLSchema\"" +
+    " targetNamespace=\"" + METADATA_NS + "\"" +
+    " xmlns:ens=\"" + METADATA_NS + "\">\n" +
+    "   <complexType name=\"sObject\"><sequence>" +
+    "<element name=\"fullName\" type=\"xsd:string\"/>" +
+    "</sequence></complexType>\n" +
+    "   <complexType name=\"Flow\"><complexContent>" +
+    "<extension base=\"ens:sObject\"><sequence>" +
+    "<element name=\"label\" type=\"xsd:string\"/>" +
+    "</sequence></extension></complexContent></complexType>\n" +
+    "  </schema>\n" +
+    " </types>\n" +
+    " <message name=\"loginRequest\">" +
+    "<part name=\"parameters\" element=\"tns:login\"/></message>\n" +
+    " <message name=\"loginResponse\">" +
+    "<part element=\"tns:loginResponse\"/></message>\n" +
+    " <message><part name=\"orphan\" element=\"tns:orphan\"/></message>\n" +
+    " <portType name=\"Soap\"><operation name=\"login\">" +
+    "<input message=\"tns:loginRequest\"/>" +
+    "<output message=\"tns:loginResponse\"/>" +
+    "</operation></portType>\n" +
+    " <binding name=\"SoapBinding\" type=\"tns:Soap\">" +
+    "<operation name=\"bindingOnly\"><input/></operation></binding>\n" +
+    "</definitions>\n" +
+    "<!-- trailing -->\n";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private WsdlIndex index;
+
+  private int remaining;
+
+  @Before
+  public void setUp() throws Exception
+  {
+    final InputStream in =
+      new ByteArrayInputStream(WSDL.getBytes(WsdlIndex.UTF_8));
+
+    final WsdlIndexWriter writer = new WsdlIndexWriter();
+
+    writer.parse(in);
+
+    remaining = in.available();
+
+    final File file = folder.newFile("partner.wsdl.idx");
+
+    writer.write(file);
+
+    index = WsdlIndex.open(file);
+  }
+
+  @Test
+  public void parseConsumesWholeStream()
+  {
+    assertEquals(0, remaining);
+  }
+
+  @Test
+  public void operations()
+  {
+    final Entry login = index.getOperation("login");
+
+    assertEquals("login", login.getName());
+    assertEquals("urn:partner.soap.sforce.com", login.getNamespace());
+    assertEquals(2, login.getMembers().size());
+    assertEquals("tns:loginRequest", login.getMember("input").getType());
+    assertEquals("tns:loginResponse", login.getMember("output").getType());
+    assertNull(login.getBase());
+
+    // Binding operations are not port type operations.
+    assertNull(index.getOperation("bindingOnly"));
+  }
+
+  @Test
+  public void messages()
+  {
+    assertEquals(names(index.getEntries(Kind.MESSAGE)),
+      list("loginRequest", "loginResponse"));
+
+    final Member part = index.getMessage("loginRequest").getMember(
+      "parameters");
+
+    assertEquals("tns:login", part.getType());
+
+    // A part without name is kept with a null name.
+    final List<Member> parts = index.getMessage("loginResponse").getMembers();
+
+    assertEquals(1, parts.size());
+    assertNull(parts.get(0).getName());
+    assertEquals("tns:loginResponse", parts.get(0).getType());
+  }
+
+  @Test
+  public void complexTypes()
+  {
+    // Anonymous types are not indexed, nor redefinitions.
+    assertEquals(names(index.getEntries(Kind.COMPLEX_TYPE)),
+      list("Account", "Flow", "Flow", "sObject", "sObject"));
+
+    final Entry account = index.getComplexType("Account");
+
+    assertEquals(SOBJECT_NS, account.getNamespace());
+
+    // Fields of nested anonymous types are not fields of the type.
+    assertEquals(list("Name", "Contacts", "\u00c9t\u00e9"),
+      names(account.getMembers()));
+    assertNull(account.getMember("inner"));
+    assertNull(account.getMember("Duplicate"));
+
+    final Member name = account.getMember("Name");
+
+    assertEquals("xsd:string", name.getType());
+    assertEquals(0, name.getMinOccurs());
+    assertEquals(1, name.getMaxOccurs());
+    assertTrue(name.isNillable());
+
+    final Member contacts = account.getMember("Contacts");
+
+    assertNull(contacts.getType());
+    assertEquals(WsdlIndex.UNBOUNDED, contacts.getMaxOccurs());
+    assertFalse(contacts.isNillable());
+  }
+
+  @Test
+  public void inheritedFields()
+  {
+    final Entry account = index.getComplexType("Account");
+
+    // The base of the nested anonymous type is not the one of the type.
+    assertEquals("ens:sObject", account.getBase());
+    assertEquals(SOBJECT_NS, account.getBaseNamespace());
+    assertNull(index.getComplexType(SOBJECT_NS, "sObject").getBase());
+
+    assertEquals(list("Id", "Name", "Contacts", "\u00c9t\u00e9"),
+      names(account.getAllMembers()));
+    assertEquals("tns:ID", account.getMember("Id").getType());
+  }
+
+  @Test
+  public void sameNamesInOtherNamespaces()
+  {
+    final Entry partnerFlow = index.getComplexType(SOBJECT_NS, "Flow");
+    final Entry metadataFlow = index.getComplexType(METADATA_NS, "Flow");
+
+    assertEquals(SOBJECT_NS, partnerFlow.getNamespace());
+    assertEquals(METADATA_NS, metadataFlow.getNamespace());
+
+    // The same prefix is bound to the namespace of each schema.
+    assertEquals(SOBJECT_NS, partnerFlow.getBaseNamespace());
+    assertEquals(METADATA_NS, metadataFlow.getBaseNamespace());
+
+    assertEquals(list("Id", "Description"),
+      names(partnerFlow.getAllMembers()));
+    assertEquals(list("fullName", "label"),
+      names(metadataFlow.getAllMembers()));
+
+    // Without a namespace, the first namespace in alphabetical order wins.
+    assertEquals(METADATA_NS, index.getComplexType("Flow").getNamespace());
+    assertEquals(METADATA_NS, index.getComplexType("sObject").getNamespace());
+
+    assertNull(index.getComplexType("urn:other", "Flow"));
+    assertNull(index.getComplexType(null, "Flow"));
+  }
+
+  @Test
+  public void missingEntries()
+  {
+    assertNull(index.getComplexType("Contact"));
+    assertNull(index.getComplexType(""));
+    assertNull(index.getMessage("zzz"));
+    assertNull(index.getOperation("a"));
+    assertNull(index.getComplexType("Account").getMember("Missing"));
+  }
+
+  @Test
+  public void entriesAreSorted()
+  {
+    final List<Entry> entries = index.getEntries(Kind.COMPLEX_TYPE);
+
+    for (int i = 1; i < entries.size(); i++)
+    {
+      final Entry previous = entries.get(i - 1);
+      final Entry entry = entries.get(i);
+      final int comparison = previous.getName().compareTo(entry.getName());
+
+      assertTrue(comparison < 0 || comparison == 0 &&
+        previous.getNamespace().compareTo(entry.getNamespace()) < 0);
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void notAnIndex() throws IOException
+  {
+    final File file = folder.newFile("partner.wsdl");
+
+    WsdlIndex.open(file);
+  }
+
+  @Test
+  public void emptyWsdl() throws Exception
+  {
+    final WsdlIndexWriter writer = new WsdlIndexWriter();
+
+    writer.parse(new ByteArrayInputStream(
+      "<definitions xmlns=\"http://schemas.xmlsoap.org/wsdl/\"/>".getBytes(
+      WsdlIndex.UTF_8)));
+
+    final File file = folder.newFile("empty.wsdl.idx");
+
+    writer.write(file);
+
+    final WsdlIndex empty = WsdlIndex.open(file);
+
+    for (Kind kind : Kind.values())
+    {
+      assertTrue(empty.getEntries(kind).isEmpty());
+    }
+
+    assertNull(empty.getComplexType("Account"));
+  }
+
+  private static List<String> names(final List<?> items)
+  {
+    final List<String> names = new ArrayList<String>();
+
+    for (Object item : items)
+    {
+      names.add(item instanceof Entry ? ((Entry) item).getName() :
+        ((Member) item).getName());
+    }
+
+    return names;
+  }
+
+  private static List<String> list(final String... names)
+  {
+    final List<String> list = new ArrayList<String>();
+
+    for (String name : names)
+    {
+      list.add(name);
+    }
+
+    return list;
+  }
+}